@@ -12,9 +12,12 @@ import java.util.Collections;
 import java.util.LinkedList;
 import java.util.List;
 
+import com.github.ibmioss.dcmtools.utils.CertDigest;
 import com.github.ibmioss.dcmtools.utils.CertUtils;
-import com.github.ibmioss.dcmtools.utils.DcmApiCaller;
+import com.github.ibmioss.dcmtools.utils.DcmBackend;
+import com.github.ibmioss.dcmtools.utils.DcmBackendFactory;
 import com.github.ibmioss.dcmtools.utils.DcmChangeTracker;
+import com.github.ibmioss.dcmtools.utils.DirectoryWalker;
 import com.github.ibmioss.dcmtools.utils.KeyStoreInterrogator;
 import com.github.ibmioss.dcmtools.utils.KeyStoreLoader;
 import com.github.ibmioss.dcmtools.utils.TempFileManager;
@@ -28,11 +31,19 @@ import com.ibm.as400.access.ObjectDoesNotExistException;
 
 public class CertFileImporter {
     public static class ImportOptions extends DcmUserOpts {
+        private final DirectoryWalker directoryWalker = new DirectoryWalker();
         private boolean isCasOnly = false;
         private boolean isPasswordProtected = false;
         private String label = null;
         private String password = null;
 
+        /**
+         * Decides which files are imported from any directories given as input.
+         */
+        public DirectoryWalker getDirectoryWalker() {
+            return this.directoryWalker;
+        }
+
         public String getLabel() {
             return this.label;
         }
@@ -92,7 +103,7 @@ public class CertFileImporter {
 
         final boolean isYesMode = _opts.isYesMode();
         // Initialize keystore from file of unknown type
-        final KeyStore keyStore = new KeyStoreLoader(_logger, m_fileNames, _opts.getPasswordOrNull(), _opts.getLabel(), _opts.isCasOnly()).getKeyStore();
+        final KeyStore keyStore = new KeyStoreLoader(_logger, m_fileNames, _opts.getPasswordOrNull(), _opts.getLabel(), _opts.isCasOnly(), _opts.getDirectoryWalker()).getKeyStore();
         _logger.println_success("Sanity check successful");
 
         final KeyStoreInterrogator dcmChecker = _tracker.getStartingSnapshot();
@@ -101,7 +112,7 @@ public class CertFileImporter {
         for (final String alias : Collections.list(keyStore.aliases())) {
             _logger.println("checking for conflicting cert to the one with alias " + alias);
             final Certificate cert = keyStore.getCertificate(alias);
-            final String conflictingAlias = dcmChecker.getAliasOfCertOrNull(_logger, cert);
+            final String conflictingAlias = dcmChecker.getAliasOfCertOrNull(_logger, CertDigest.of(cert));
             if (null != conflictingAlias) {
                 _logger.println_warn("WARNING: The following certificate already exists in the keystore with certificate id '" + conflictingAlias + "'. Certificate will not be imported:\n" + CertUtils.getCertInfoStr(cert, "    "));
                 keyStore.deleteEntry(alias);
@@ -131,11 +142,15 @@ public class CertFileImporter {
             throw new IOException("No certificates to import");
         }
 
+        for (final String alias : Collections.list(keyStore.aliases())) {
+            _tracker.expectAdded(alias, keyStore.getCertificate(alias));
+        }
+
         // Convert the KeyStore object to a file in the format needed by the DCM API
         final String dcmImportFile = new KeyStoreLoader(keyStore).saveToDcmApiFormatFile(TempFileManager.TEMP_KEYSTORE_PWD);
 
         // .... and... call the DCM API to do the import!
-        try (DcmApiCaller caller = new DcmApiCaller(isYesMode)) {
+        try (DcmBackend caller = DcmBackendFactory.open(isYesMode)) {
             caller.callQykmImportKeyStore(_logger, _opts.getDcmStore(), _opts.getDcmPassword(), dcmImportFile, TempFileManager.TEMP_KEYSTORE_PWD);
         }
     }
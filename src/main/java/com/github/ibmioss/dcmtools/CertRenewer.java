@@ -15,7 +15,8 @@ import java.util.Collections;
 import java.util.LinkedList;
 import java.util.List;
 
-import com.github.ibmioss.dcmtools.utils.DcmApiCaller;
+import com.github.ibmioss.dcmtools.utils.DcmBackend;
+import com.github.ibmioss.dcmtools.utils.DcmBackendFactory;
 import com.github.ibmioss.dcmtools.utils.KeyStoreLoader;
 import com.github.ibmioss.dcmtools.utils.TempFileManager;
 import com.github.theprez.jcmdutils.AppLogger;
@@ -50,7 +51,9 @@ public class CertRenewer {
         try (FileOutputStream fos = new FileOutputStream(tmpFile)) {
             fos.write(_cert.getEncoded());
         }
-        new DcmApiCaller(_opts.isYesMode()).callQycdRenewCertificate_RNWC0300(_logger, tmpFile.getAbsolutePath());
+        try (DcmBackend caller = DcmBackendFactory.open(_opts.isYesMode())) {
+            caller.callQycdRenewCertificate_RNWC0300(_logger, tmpFile.getAbsolutePath());
+        }
         tmpFile.delete();
     }
 }
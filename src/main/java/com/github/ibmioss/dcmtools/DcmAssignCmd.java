@@ -1,30 +1,45 @@
 package com.github.ibmioss.dcmtools;
 
 import java.io.IOException;
+import java.util.Arrays;
 import java.util.HashSet;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Map.Entry;
 import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
-import com.github.ibmioss.dcmtools.utils.DcmApiCaller;
+import com.github.ibmioss.dcmtools.utils.DcmBackend;
+import com.github.ibmioss.dcmtools.utils.DcmBackendFactory;
 import com.github.ibmioss.dcmtools.utils.TempFileManager;
 import com.github.theprez.jcmdutils.AppLogger;
 import com.github.theprez.jcmdutils.ConsoleQuestionAsker;
 import com.github.theprez.jcmdutils.StringUtils;
 import com.github.theprez.jcmdutils.StringUtils.TerminalColor;
+import com.ibm.as400.access.AS400SecurityException;
 
 public class DcmAssignCmd {
     private static class AssignOptions extends DcmUserOpts {
 
         private final Set<String> m_apps = new HashSet<String>();
         private String m_certId;
+        private int m_numWorkers = 1;
 
         public void addApp(final String _app) {
             m_apps.add(_app);
         }
 
         Set<String> getApps() throws IOException {
-            if (m_apps.isEmpty() && !isYesMode()) {
+            if (!m_apps.isEmpty()) {
+                return m_apps;
+            }
+            if (!isYesMode()) {
                 final String resp = ConsoleQuestionAsker.get().askUserOrThrow("Enter application ID: ");
                 m_apps.add(resp);
                 return m_apps;
@@ -59,12 +74,21 @@ public class DcmAssignCmd {
             throw new IOException("ERROR: Certificate ID is required");
         }
 
+        int getNumWorkers() {
+            return m_numWorkers;
+        }
+
         public void setCertId(final String _id) {
             m_certId = _id;
         }
 
+        public void setNumWorkers(final int _numWorkers) {
+            m_numWorkers = Math.max(1, _numWorkers);
+        }
+
     }
 
+    private static final int DEFAULT_NUM_WORKERS = 4;
     private static final String[] s_commonApplications;
     //@formatter:on
     private static final Map<String, String[]> s_shortHands;
@@ -122,6 +146,69 @@ public class DcmAssignCmd {
         }
     }
 
+    private static Map<String, Exception> assign(final AppLogger _logger, final AssignOptions _opts, final Set<String> _apps) throws IOException, InterruptedException {
+        final String dcmStore = _opts.getDcmStore();
+        final String certId = _opts.getCertId();
+        final Map<String, Exception> results = new LinkedHashMap<String, Exception>();
+        final int numWorkers = Math.min(_opts.getNumWorkers(), _apps.size());
+        if (numWorkers <= 1) {
+            try (DcmBackend caller = DcmBackendFactory.open(_opts.isYesMode())) {
+                for (final String app : _apps) {
+                    _logger.println("Assigning to " + app + "...");
+                    try {
+                        caller.callQycdUpdateCertUsage(_logger, app, dcmStore, certId);
+                        results.put(app, null);
+                    } catch (final Exception e) {
+                        results.put(app, e);
+                    }
+                }
+            } catch (final AS400SecurityException e) {
+                throw new IOException(e);
+            }
+            return results;
+        }
+
+        // Sign on from this thread first, so that any prompting is done before the workers start, and let the
+        // connection pool grow past dcmtools.pool.size so that every worker has a connection of its own
+        DcmBackendFactory.ensureConcurrency(_opts.isYesMode(), numWorkers);
+        try {
+            DcmBackendFactory.open(_opts.isYesMode()).close();
+        } catch (final AS400SecurityException e) {
+            throw new IOException(e);
+        }
+        final ExecutorService workers = Executors.newFixedThreadPool(numWorkers);
+        final Map<String, Future<?>> futures = new LinkedHashMap<String, Future<?>>();
+        try {
+            for (final String app : _apps) {
+                futures.put(app, workers.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception {
+                        _logger.println("Assigning to " + app + "...");
+                        try (DcmBackend caller = DcmBackendFactory.open(_opts.isYesMode())) {
+                            caller.callQycdUpdateCertUsage(_logger, app, dcmStore, certId);
+                        }
+                        return null;
+                    }
+                }));
+            }
+            for (final Entry<String, Future<?>> future : futures.entrySet()) {
+                try {
+                    future.getValue().get();
+                    results.put(future.getKey(), null);
+                } catch (final ExecutionException e) {
+                    results.put(future.getKey(), e.getCause() instanceof Exception ? (Exception) e.getCause() : e);
+                }
+            }
+        } finally {
+            workers.shutdownNow();
+        }
+        return results;
+    }
+
+    static List<String> getCommonApplications() {
+        return Arrays.asList(s_commonApplications);
+    }
+
     public static void main(final String... _args) {
         final AssignOptions opts = new AssignOptions();
         for (final String arg : _args) {
@@ -131,6 +218,15 @@ public class DcmAssignCmd {
                 opts.setVerbose(true);
             } else if ("-h".equals(arg) || "--help".equals(arg)) {
                 printUsageAndExit();
+            } else if ("--parallel".equals(arg)) {
+                opts.setNumWorkers(DEFAULT_NUM_WORKERS);
+            } else if (arg.startsWith("--parallel=")) {
+                try {
+                    opts.setNumWorkers(Integer.parseInt(DcmUserOpts.extractValue(arg)));
+                } catch (final NumberFormatException e) {
+                    System.err.println(StringUtils.colorizeForTerminal("ERROR: Invalid worker count in '" + arg + "'", TerminalColor.BRIGHT_RED));
+                    printUsageAndExit();
+                }
             } else if (arg.startsWith("--cert=")) {
                 opts.setCertId(DcmUserOpts.extractValue(arg));
             } else if (arg.startsWith("--dcm-store=")) {
@@ -148,10 +244,22 @@ public class DcmAssignCmd {
             }
         }
         final AppLogger logger = AppLogger.getSingleton(opts.isVerbose());
-        try (DcmApiCaller caller = new DcmApiCaller(opts.isYesMode())) {
-            for (final String app : opts.getAppsWithShorthandsProcessed()) {
-                logger.println("Assigning to " + app + "...");
-                caller.callQycdUpdateCertUsage(logger, app, opts.getDcmStore(), opts.getCertId());
+        try {
+            DcmBackendFactory.warmUp(logger, opts.isYesMode());
+            final Map<String, Exception> results = assign(logger, opts, new TreeSet<String>(opts.getAppsWithShorthandsProcessed()));
+            int numFailed = 0;
+            for (final Entry<String, Exception> result : results.entrySet()) {
+                final Exception failure = result.getValue();
+                if (null == failure) {
+                    logger.println_success("    " + result.getKey() + ": assigned");
+                } else {
+                    numFailed++;
+                    logger.printExceptionStack_verbose(failure);
+                    logger.println_err("    " + result.getKey() + ": " + failure.getLocalizedMessage());
+                }
+            }
+            if (0 < numFailed) {
+                throw new IOException(String.format("Failed to assign certificate to %d of %d application(s)", numFailed, results.size()));
             }
             logger.println_success("SUCCESS!!!");
         } catch (final Exception e) {
@@ -172,6 +280,8 @@ public class DcmAssignCmd {
 		                        + "    Valid options include:\n"
                                 + "        -y:                              Do not ask for confirmation\n"
                                 + "        --cert=<id>:                     Certificate ID to assign\n"
+                                + "        --parallel[=<n>]:                Assign to several applications at once, using up\n"
+                                + "                                         to <n> connections (default: " + DEFAULT_NUM_WORKERS + ")\n"
                                 + "        --dcm-store=<system/filename>:   Specify the DCM certificate store, or specify 'system'\n"
                                 + "                                         to indicate the *SYSTEM store (default)\n"
                                 + "\n"
@@ -5,6 +5,7 @@ import java.io.FileOutputStream;
 import java.security.KeyStore;
 
 import com.github.ibmioss.dcmtools.DcmExportCmd.ExportOptions;
+import com.github.ibmioss.dcmtools.utils.DcmSnapshotCache;
 import com.github.ibmioss.dcmtools.utils.TempFileManager;
 import com.github.theprez.jcmdutils.AppLogger;
 import com.github.theprez.jcmdutils.StringUtils;
@@ -55,6 +56,7 @@ public class DcmChangePwCmd {
             try (FileOutputStream fos = new FileOutputStream(opts.getDcmStore())) {
                 ks.store(fos, opts.getPasswordOrThrow());
             }
+            DcmSnapshotCache.get().invalidate(opts.getDcmStore());
 
             logger.println_success("SUCCESS!!!");
         } catch (final Exception e) {
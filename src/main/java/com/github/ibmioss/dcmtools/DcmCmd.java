@@ -36,6 +36,12 @@ public class DcmCmd {
             case "renew":
                 DcmRenewCmd.main(passOnArgs);
                 return;
+            case "diff":
+                DcmDiffCmd.main(passOnArgs);
+                return;
+            case "scan":
+                DcmScanCmd.main(passOnArgs);
+                return;
         }
         System.err.println(StringUtils.colorizeForTerminal("ERROR: Unknown operation '" + operation + "'", TerminalColor.BRIGHT_RED));
         printUsageAndExit();
@@ -47,6 +53,8 @@ public class DcmCmd {
 		                        + "    Valid operations include:\n"
                                 + "        import             Import certificates into DCM\n"
                                 + "        export             Export certificates from DCM\n"
+                                + "        diff               Compare the certificates in two stores or files\n"
+                                + "        scan               Find certificates duplicated across, or missing from, several stores\n"
                                 ;
 		// @formatter:on
         System.err.println(usage);
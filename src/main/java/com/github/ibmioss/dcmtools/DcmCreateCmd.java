@@ -4,7 +4,8 @@ import java.io.File;
 import java.io.FileOutputStream;
 import java.security.KeyStore;
 
-import com.github.ibmioss.dcmtools.utils.DcmApiCaller;
+import com.github.ibmioss.dcmtools.utils.DcmBackend;
+import com.github.ibmioss.dcmtools.utils.DcmBackendFactory;
 import com.github.ibmioss.dcmtools.utils.TempFileManager;
 import com.github.theprez.jcmdutils.AppLogger;
 import com.github.theprez.jcmdutils.StringUtils;
@@ -57,6 +58,7 @@ public class DcmCreateCmd {
                 System.err.println(StringUtils.colorizeForTerminal("ERROR: no input files specified", TerminalColor.BRIGHT_RED));
                 printUsageAndExit();
             }
+            DcmBackendFactory.warmUp(logger, opts.isYesMode());
             logger.println("Creating DCM store at " + dcmStore);
             final KeyStore ks = KeyStore.getInstance("PKCS12");
             ks.load(null, opts.getDcmPassword().toCharArray());
@@ -64,7 +66,7 @@ public class DcmCreateCmd {
             try (final FileOutputStream fos = new FileOutputStream(tmpFile)) {
                 ks.store(fos, TempFileManager.TEMP_KEYSTORE_PWD.toCharArray());
             }
-            try (DcmApiCaller caller = new DcmApiCaller(opts.isYesMode())) {
+            try (DcmBackend caller = DcmBackendFactory.open(opts.isYesMode())) {
                 caller.callQykmImportKeyStore(logger, opts.getDcmStore(), opts.getDcmPassword(), tmpFile.getAbsolutePath(), TempFileManager.TEMP_KEYSTORE_PWD);
             }
             logger.println_success("SUCCESS!!!");
@@ -0,0 +1,236 @@
+package com.github.ibmioss.dcmtools;
+
+import java.io.IOException;
+import java.security.KeyStore;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+
+import com.github.ibmioss.dcmtools.utils.CertDigest;
+import com.github.ibmioss.dcmtools.utils.CertUtils;
+import com.github.ibmioss.dcmtools.utils.DcmBackendFactory;
+import com.github.ibmioss.dcmtools.utils.DcmChangeTracker;
+import com.github.ibmioss.dcmtools.utils.DcmChangeTracker.ChangeType;
+import com.github.ibmioss.dcmtools.utils.DcmChangeTracker.DcmChange;
+import com.github.ibmioss.dcmtools.utils.DcmSnapshotCache;
+import com.github.ibmioss.dcmtools.utils.DcmStoreReader;
+import com.github.ibmioss.dcmtools.utils.KeyStoreInterrogator;
+import com.github.ibmioss.dcmtools.utils.KeyStoreLoader;
+import com.github.ibmioss.dcmtools.utils.StoreDigest;
+import com.github.ibmioss.dcmtools.utils.TempFileManager;
+import com.github.theprez.jcmdutils.AppLogger;
+import com.github.theprez.jcmdutils.ConsoleQuestionAsker;
+import com.github.theprez.jcmdutils.StringUtils;
+import com.github.theprez.jcmdutils.StringUtils.TerminalColor;
+
+/**
+ * Compares the certificates in two sources, each of which may be a DCM certificate store, the cached snapshot of one,
+ * or any file that <tt>dcmimport</tt> can read.
+ */
+public class DcmDiffCmd {
+
+    private static final String DCM_PREFIX = "dcm:";
+    private static final String SNAPSHOT_PREFIX = "snapshot:";
+
+    private static String describe(final DcmChange _change) throws Exception {
+        String ret = _change.getType() + " '" + _change.getLabel() + "'";
+        if (null != _change.getOldCertificate()) {
+            ret += " old=" + CertDigest.of(_change.getOldCertificate()).getFingerprint();
+        }
+        if (null != _change.getNewCertificate()) {
+            ret += " new=" + CertDigest.of(_change.getNewCertificate()).getFingerprint();
+        }
+        return ret;
+    }
+
+    private static KeyStoreInterrogator load(final AppLogger _logger, final DcmUserOpts _opts, final String _dcmPw, final String _filePw, final String _source) throws Exception {
+        if (_source.startsWith(SNAPSHOT_PREFIX)) {
+            final DcmUserOpts storeOpts = storeOpts(_opts, _dcmPw, _source.substring(SNAPSHOT_PREFIX.length()));
+            final KeyStore ks = DcmSnapshotCache.get().loadLatest(_logger, storeOpts.getDcmStore(), storeOpts.getDcmPassword());
+            if (null == ks) {
+                throw new IOException("No usable snapshot of certificate store " + storeOpts.getDcmStore());
+            }
+            return new KeyStoreInterrogator(ks);
+        }
+        if (isDcmSource(_source)) {
+            final DcmUserOpts storeOpts = storeOpts(_opts, _dcmPw, _source.startsWith(DCM_PREFIX) ? _source.substring(DCM_PREFIX.length()) : _source);
+            return new KeyStoreInterrogator(DcmStoreReader.read(_logger, storeOpts.isYesMode(), storeOpts.getDcmStore(), storeOpts.getDcmPassword()).getKeyStore());
+        }
+        return new KeyStoreInterrogator(new KeyStoreLoader(_logger, Arrays.asList(_source), _filePw, null, false).getKeyStore());
+    }
+
+    public static void main(final String... _args) {
+        final DcmUserOpts opts = new DcmUserOpts();
+        final List<String> sources = new LinkedList<String>();
+        boolean isIgnoringLabels = false;
+        String dcmPw = null;
+        String filePw = null;
+        for (final String arg : _args) {
+            if ("-y".equals(arg)) {
+                opts.setYesMode(true);
+            } else if ("-v".equals(arg)) {
+                opts.setVerbose(true);
+            } else if ("-h".equals(arg) || "--help".equals(arg)) {
+                printUsageAndExit();
+            } else if (arg.startsWith("--dcm-password=")) {
+                dcmPw = DcmUserOpts.extractValue(arg);
+            } else if ("--ignore-labels".equals(arg)) {
+                isIgnoringLabels = true;
+            } else if (arg.startsWith("--password=")) {
+                filePw = DcmUserOpts.extractValue(arg);
+            } else if (arg.startsWith("-")) {
+                System.err.println(StringUtils.colorizeForTerminal("ERROR: Unknown option '" + arg + "'", TerminalColor.BRIGHT_RED));
+                printUsageAndExit();
+            } else {
+                sources.add(arg);
+            }
+        }
+        if (2 != sources.size()) {
+            System.err.println(StringUtils.colorizeForTerminal("ERROR: exactly two sources must be specified", TerminalColor.BRIGHT_RED));
+            printUsageAndExit();
+        }
+        final AppLogger logger = AppLogger.getSingleton(opts.isVerbose());
+        int exitStatus = 0;
+        try {
+            for (final String source : sources) {
+                if (isDcmSource(source)) {
+                    DcmBackendFactory.warmUp(logger, opts.isYesMode());
+                    break;
+                }
+            }
+            final KeyStoreInterrogator from = load(logger, opts, dcmPw, filePw, sources.get(0));
+            final KeyStoreInterrogator to = load(logger, opts, dcmPw, filePw, sources.get(1));
+            // Only the entries in buckets where the two store digests differ need to be compared
+            final List<Integer> differingBuckets = StoreDigest.ofCerts(from.getDigests()).getDifferingBuckets(StoreDigest.ofCerts(to.getDigests()));
+            logger.println_verbose(differingBuckets.size() + " of " + StoreDigest.NUM_BUCKETS + " digest buckets differ");
+            final List<DcmChange> changes = DcmChangeTracker.diff(logger, inBuckets(from.getDigests(), differingBuckets), inBuckets(to.getDigests(), differingBuckets));
+
+            // A certificate that was removed under one label and added under another is the same certificate, relabeled
+            // (one certificate may be added under several labels, so each removal is paired with one of them in turn)
+            final Map<String, LinkedList<DcmChange>> addedByFingerprint = new HashMap<String, LinkedList<DcmChange>>();
+            for (final DcmChange change : changes) {
+                if (ChangeType.ADDED == change.getType()) {
+                    final String fingerprint = CertDigest.of(change.getNewCertificate()).getFingerprint();
+                    LinkedList<DcmChange> added = addedByFingerprint.get(fingerprint);
+                    if (null == added) {
+                        added = new LinkedList<DcmChange>();
+                        addedByFingerprint.put(fingerprint, added);
+                    }
+                    added.add(change);
+                }
+            }
+            final Map<DcmChange, DcmChange> relabeled = new LinkedHashMap<DcmChange, DcmChange>();
+            for (final DcmChange change : changes) {
+                if (ChangeType.REMOVED == change.getType() && null != change.getOldCertificate()) {
+                    final LinkedList<DcmChange> added = addedByFingerprint.get(CertDigest.of(change.getOldCertificate()).getFingerprint());
+                    if (null != added && !added.isEmpty()) {
+                        relabeled.put(change, added.removeFirst());
+                    }
+                }
+            }
+            changes.removeAll(relabeled.keySet());
+            changes.removeAll(relabeled.values());
+            if (isIgnoringLabels) {
+                // Extra copies of a certificate that the other source also has, under whatever label, are no difference either
+                final Set<CertDigest> fromDigests = new HashSet<CertDigest>(from.getDigests().values());
+                final Set<CertDigest> toDigests = new HashSet<CertDigest>(to.getDigests().values());
+                final Iterator<DcmChange> it = changes.iterator();
+                while (it.hasNext()) {
+                    final DcmChange change = it.next();
+                    // an update is no difference either if both sources hold both certificates
+                    final boolean isOldElsewhere = null == change.getOldCertificate() || toDigests.contains(CertDigest.of(change.getOldCertificate()));
+                    final boolean isNewElsewhere = null == change.getNewCertificate() || fromDigests.contains(CertDigest.of(change.getNewCertificate()));
+                    if ((ChangeType.REMOVED == change.getType() && null != change.getOldCertificate() && isOldElsewhere)
+                            || (ChangeType.ADDED == change.getType() && isNewElsewhere)
+                            || (ChangeType.UPDATED == change.getType() && isOldElsewhere && isNewElsewhere)) {
+                        it.remove();
+                    }
+                }
+            }
+
+            if (changes.isEmpty() && (relabeled.isEmpty() || isIgnoringLabels)) {
+                logger.println_success("The two sources contain the same certificates");
+            } else {
+                logger.println("Changes from " + sources.get(0) + " to " + sources.get(1) + ":");
+                for (final DcmChange change : changes) {
+                    logger.println(describe(change));
+                    if (opts.isVerbose()) {
+                        logger.println_verbose(StringUtils.colorizeForTerminal(CertUtils.getCertInfoStr(null == change.getNewCertificate() ? change.getOldCertificate() : change.getNewCertificate(), "    "), TerminalColor.CYAN));
+                    }
+                }
+                if (!isIgnoringLabels) {
+                    for (final Entry<DcmChange, DcmChange> pair : relabeled.entrySet()) {
+                        logger.println("RELABELED '" + pair.getKey().getLabel() + "' -> '" + pair.getValue().getLabel() + "' fingerprint=" + CertDigest.of(pair.getValue().getNewCertificate()).getFingerprint());
+                    }
+                }
+                exitStatus = 1;
+            }
+        } catch (final Exception e) {
+            logger.printExceptionStack_verbose(e);
+            logger.println_err(e.getLocalizedMessage());
+            TempFileManager.cleanup();
+            System.exit(-1);
+        } finally {
+            TempFileManager.cleanup();
+        }
+        System.exit(exitStatus);
+    }
+
+    private static Map<String, CertDigest> inBuckets(final Map<String, CertDigest> _certs, final List<Integer> _buckets) {
+        final Set<Integer> buckets = new HashSet<Integer>(_buckets);
+        final Map<String, CertDigest> ret = new LinkedHashMap<String, CertDigest>();
+        for (final Entry<String, CertDigest> entry : _certs.entrySet()) {
+            if (buckets.contains(StoreDigest.bucketOf(entry.getKey()))) {
+                ret.put(entry.getKey(), entry.getValue());
+            }
+        }
+        return ret;
+    }
+
+    private static boolean isDcmSource(final String _source) {
+        return _source.startsWith(DCM_PREFIX) || "system".equalsIgnoreCase(_source) || "*system".equalsIgnoreCase(_source);
+    }
+
+    private static void printUsageAndExit() {
+        // @formatter:off
+        final String usage = "Usage: dcmdiff [options] <source> <source>\n"
+                + "\n"
+                + "    Each source is one of:\n"
+                + "        dcm:<filename>:                A DCM keystore, or 'system' for the *SYSTEM store\n"
+                + "        snapshot:<filename>:           The most recent cached snapshot of a DCM keystore\n"
+                + "        <filename>:                    Any file that dcmimport can read\n"
+                + "\n"
+                + "    Valid options include:\n"
+                + "        -y:                            Do not ask for confirmation\n"
+                + "        --dcm-password=<password>:     Provide the DCM keystore password (not recommended)\n"
+                + "        --password=<password>:         Provide the password for password-protected files\n"
+                + "        --ignore-labels:               Only compare certificates, not the labels they are stored under\n"
+                + "\n"
+                + "    Exits with status 0 if both sources hold the same certificates, and 1 if not\n"
+                ;
+        // @formatter:on
+        System.err.println(usage);
+        System.exit(-1);
+    }
+
+    private static DcmUserOpts storeOpts(final DcmUserOpts _opts, final String _dcmPw, final String _store) throws IOException {
+        final DcmUserOpts ret = new DcmUserOpts();
+        ret.setYesMode(_opts.isYesMode());
+        ret.setVerbose(_opts.isVerbose());
+        ret.setDcmStore("system".equalsIgnoreCase(_store) || "*system".equalsIgnoreCase(_store) ? DcmUserOpts.SYSTEM_DCM_STORE : _store);
+        if (StringUtils.isNonEmpty(_dcmPw)) {
+            ret.setDcmPassword(_dcmPw);
+        } else if (!_opts.isYesMode()) {
+            // there may be two stores, so say which one the password is for
+            ret.setDcmPassword(ConsoleQuestionAsker.get().askUserForPwd("Enter password for DCM keystore " + ret.getDcmStore() + ": "));
+        }
+        return ret;
+    }
+}
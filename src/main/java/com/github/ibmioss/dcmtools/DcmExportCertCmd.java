@@ -10,7 +10,8 @@ import java.security.cert.X509Certificate;
 import java.util.Base64;
 import java.util.Base64.Encoder;
 
-import com.github.ibmioss.dcmtools.utils.CertUtils;
+import com.github.ibmioss.dcmtools.utils.DcmBackendFactory;
+import com.github.ibmioss.dcmtools.utils.DcmStoreReader;
 import com.github.ibmioss.dcmtools.utils.TempFileManager;
 import com.github.theprez.jcmdutils.AppLogger;
 import com.github.theprez.jcmdutils.ConsoleQuestionAsker;
@@ -110,7 +111,10 @@ public class DcmExportCertCmd {
             printUsageAndExit();
         }
         try {
-            KeyStore ks = CertUtils.exportDcmStoreToKeystoreObj(logger, opts.isYesMode(), opts.getDcmStore(), opts.getDcmPassword());
+            if (!DcmStoreReader.canReadDirectly(opts.getDcmStore())) {
+                DcmBackendFactory.warmUp(logger, opts.isYesMode());
+            }
+            final KeyStore ks = DcmStoreReader.read(logger, opts.isYesMode(), opts.getDcmStore(), opts.getDcmPassword()).getKeyStore();
             final Certificate cert = ks.getCertificate(opts.getLabel());
 
             if (ExportCertOptions.OutputFormat.PEM == opts.getFormat()) {
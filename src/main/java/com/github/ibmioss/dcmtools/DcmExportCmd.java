@@ -10,6 +10,7 @@ import java.util.Collections;
 import javax.security.auth.x500.X500Principal;
 
 import com.github.ibmioss.dcmtools.utils.CertUtils;
+import com.github.ibmioss.dcmtools.utils.DcmBackendFactory;
 import com.github.ibmioss.dcmtools.utils.TempFileManager;
 import com.github.theprez.jcmdutils.AppLogger;
 import com.github.theprez.jcmdutils.ConsoleQuestionAsker;
@@ -66,6 +67,7 @@ public class DcmExportCmd {
             printUsageAndExit();
         }
         try {
+            DcmBackendFactory.warmUp(logger, opts.isYesMode());
             if("pkcs12".equalsIgnoreCase(opts.getOutputFileFormat())) {
                 CertUtils.exportDcmStore(logger, opts.isYesMode(), opts.getDcmStore(), opts.getDcmPassword(), file, opts.getPasswordOrThrow());
                 return;
@@ -7,9 +7,15 @@ import java.io.IOException;
 import java.io.OutputStreamWriter;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import com.github.ibmioss.dcmtools.CertFileImporter.ImportOptions;
 import com.github.ibmioss.dcmtools.DcmUserOpts;
+import com.github.ibmioss.dcmtools.utils.DcmBackendFactory;
 import com.github.ibmioss.dcmtools.utils.DcmChangeTracker;
 import com.github.ibmioss.dcmtools.utils.DcmChangeTracker.NoChangesMadeException;
 import com.github.ibmioss.dcmtools.utils.TempFileManager;
@@ -27,16 +33,19 @@ import com.github.theprez.jcmdutils.StringUtils.TerminalColor;
  */
 public class DcmImportCmd {
 
-    private static String fetchCerts(final AppLogger _logger, final boolean _isYesMode, final String _fetchFrom) throws IOException {
-        final ProcessResult cmdResults = ProcessLauncher.exec("/QOpenSys/usr/bin/openssl s_client -connect " + _fetchFrom + " -showcerts");
-        if (0 != cmdResults.getExitStatus()) {
-            for (final String errLine : cmdResults.getStderr()) {
+    private static ProcessResult fetchCerts(final String _fetchFrom) throws IOException {
+        return ProcessLauncher.exec("/QOpenSys/usr/bin/openssl s_client -connect " + _fetchFrom + " -showcerts");
+    }
+
+    private static String saveFetchedCerts(final AppLogger _logger, final boolean _isYesMode, final String _fetchFrom, final ProcessResult _cmdResults) throws IOException {
+        if (0 != _cmdResults.getExitStatus()) {
+            for (final String errLine : _cmdResults.getStderr()) {
                 _logger.println_err(errLine);
             }
             throw new IOException("Error extracting trusted certificates");
         }
         boolean isCertificateFetched = false;
-        for (final String line : cmdResults.getStdout()) {
+        for (final String line : _cmdResults.getStdout()) {
             if (line.contains("END CERTIFICATE")) {
                 isCertificateFetched = true;
             }
@@ -45,7 +54,7 @@ public class DcmImportCmd {
             }
         }
         if (!isCertificateFetched) {
-            for (final String errLine : cmdResults.getStderr()) {
+            for (final String errLine : _cmdResults.getStderr()) {
                 _logger.println_err(errLine);
             }
             throw new IOException("Error extracting trusted certificates");
@@ -57,7 +66,7 @@ public class DcmImportCmd {
         final File destFile = TempFileManager.createTempFile(_fetchFrom + ".pem");
         boolean isCertLine = false;
         try (BufferedWriter bw = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(destFile, true), "UTF-8"))) {
-            for (final String line : cmdResults.getStdout()) {
+            for (final String line : _cmdResults.getStdout()) {
                 if (line.contains("BEGIN CERTIFICATE")) {
                     isCertLine = true;
                 }
@@ -111,6 +120,19 @@ public class DcmImportCmd {
                 fetchFroms.add(fetchFrom);
             } else if ("--installed-certs".equals(arg)) {
                 files.add(null);
+            } else if (arg.startsWith("--include=")) {
+                opts.getDirectoryWalker().addInclude(DcmUserOpts.extractValue(arg));
+            } else if (arg.startsWith("--exclude=")) {
+                opts.getDirectoryWalker().addExclude(DcmUserOpts.extractValue(arg));
+            } else if ("--follow-links".equals(arg)) {
+                opts.getDirectoryWalker().setFollowLinks(true);
+            } else if (arg.startsWith("--max-depth=")) {
+                try {
+                    opts.getDirectoryWalker().setMaxDepth(Integer.parseInt(DcmUserOpts.extractValue(arg)));
+                } catch (final NumberFormatException e) {
+                    System.err.println(StringUtils.colorizeForTerminal("ERROR: Invalid depth in '" + arg + "'", TerminalColor.BRIGHT_RED));
+                    printUsageAndExit();
+                }
             } else if (arg.startsWith("-")) {
                 System.err.println(StringUtils.colorizeForTerminal("ERROR: Unknown option '" + arg + "'", TerminalColor.BRIGHT_RED));
                 printUsageAndExit();
@@ -124,15 +146,41 @@ public class DcmImportCmd {
                 System.err.println(StringUtils.colorizeForTerminal("ERROR: Cannot specify file(s) when using '--fetch-from'", TerminalColor.BRIGHT_RED));
                 printUsageAndExit();
             }
-            for (final String fetchFrom : fetchFroms) {
-                files.add(fetchCerts(logger, opts.isYesMode(), fetchFrom));
-            }
-            if (files.isEmpty()) {
+            if (files.isEmpty() && fetchFroms.isEmpty()) {
                 System.err.println(StringUtils.colorizeForTerminal("ERROR: no input files specified", TerminalColor.BRIGHT_RED));
                 printUsageAndExit();
             }
+            DcmBackendFactory.warmUp(logger, opts.isYesMode());
 
-            final DcmChangeTracker dcmTracker = new DcmChangeTracker(logger, opts);
+            // Read the starting state of the store while fetching and parsing the certificates to import. The two
+            // only come together when checking for duplicates, in CertFileImporter.doImport()
+            final DcmChangeTracker dcmTracker = DcmChangeTracker.startInBackground(logger, opts);
+            if (!fetchFroms.isEmpty()) {
+                final ExecutorService fetchers = Executors.newFixedThreadPool(fetchFroms.size());
+                try {
+                    final List<Future<ProcessResult>> fetches = new LinkedList<Future<ProcessResult>>();
+                    for (final String fetchFrom : fetchFroms) {
+                        fetches.add(fetchers.submit(new Callable<ProcessResult>() {
+                            @Override
+                            public ProcessResult call() throws IOException {
+                                return fetchCerts(fetchFrom);
+                            }
+                        }));
+                    }
+                    // Show the results and ask about them one at a time, in the order given
+                    for (int i = 0; i < fetchFroms.size(); ++i) {
+                        final ProcessResult result;
+                        try {
+                            result = fetches.get(i).get();
+                        } catch (final ExecutionException e) {
+                            throw new IOException("Error fetching certificates from " + fetchFroms.get(i) + ": " + e.getCause().getLocalizedMessage(), e.getCause());
+                        }
+                        files.add(saveFetchedCerts(logger, opts.isYesMode(), fetchFroms.get(i), result));
+                    }
+                } finally {
+                    fetchers.shutdownNow();
+                }
+            }
             final CertFileImporter off = new CertFileImporter(logger, files);
             off.doImport(logger, opts, dcmTracker);
             //@formatter:off
@@ -181,6 +229,15 @@ public class DcmImportCmd {
                                 + "        --installed-certs:             import all certificates that are installed into PASE\n"
                                 + "                                       environment, for instance, certificates in the\n"
                                 + "                                       ca-certificates-mozilla package\n"
+                                + "\n"
+                                + "    When a directory is given, the files under it are imported. These options choose which:\n"
+                                + "        --include=<glob>:              Only import files matching the pattern, such as '*.pem'\n"
+                                + "                                       (may be repeated)\n"
+                                + "        --exclude=<glob>:              Skip files and directories matching the pattern, such as\n"
+                                + "                                       'archive' (may be repeated). Patterns containing '/'\n"
+                                + "                                       match the path relative to the directory\n"
+                                + "        --follow-links:                Descend into directories reached through symbolic links\n"
+                                + "        --max-depth=<n>:               Descend at most n levels (1 for only the directory itself)\n"
                                 ;
 		// @formatter:on
         System.err.println(usage);
@@ -4,8 +4,14 @@ import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.security.KeyStore;
+import java.util.LinkedList;
+import java.util.List;
 
+import com.github.ibmioss.dcmtools.utils.DcmBackend;
+import com.github.ibmioss.dcmtools.utils.DcmBackendFactory;
+import com.github.ibmioss.dcmtools.utils.DcmCertUsageRegistry;
 import com.github.ibmioss.dcmtools.utils.DcmChangeTracker;
+import com.github.ibmioss.dcmtools.utils.DcmSnapshotCache;
 import com.github.ibmioss.dcmtools.utils.TempFileManager;
 import com.github.theprez.jcmdutils.AppLogger;
 import com.github.theprez.jcmdutils.ConsoleQuestionAsker;
@@ -20,6 +26,7 @@ import com.github.theprez.jcmdutils.StringUtils.TerminalColor;
 public class DcmRemoveCertCmd {
     private static class CertRemoveOpts extends DcmUserOpts {
 
+        private boolean m_isCheckingUsage = false;
         private String m_label = null;
 
         public String getLabel() throws IOException {
@@ -33,11 +40,35 @@ public class DcmRemoveCertCmd {
             throw new IOException("ERROR: label is required");
         }
 
+        /**
+         * Whether to look up which applications are assigned the certificate before removing it. This costs one API
+         * call per known application, so it is only done when asked for.
+         */
+        public boolean isCheckingUsage() {
+            return m_isCheckingUsage;
+        }
+
+        public void setCheckingUsage(final boolean _isCheckingUsage) {
+            m_isCheckingUsage = _isCheckingUsage;
+        }
+
         public void setLabel(final String _label) {
             m_label = _label;
         }
     }
 
+    private static List<String> getAppsUsingCert(final AppLogger _logger, final CertRemoveOpts _opts) throws IOException {
+        final String dcmStore = _opts.getDcmStore();
+        final String label = _opts.getLabel();
+        try (DcmBackend backend = DcmBackendFactory.open(_opts.isYesMode())) {
+            return DcmCertUsageRegistry.get().getAppsUsingCert(_logger, backend, DcmAssignCmd.getCommonApplications(), dcmStore, label);
+        } catch (final Exception e) {
+            _logger.printExceptionStack_verbose(e);
+            _logger.println_warn_verbose("WARNING: Unable to determine which applications use the certificate: " + e.getLocalizedMessage());
+            return new LinkedList<String>();
+        }
+    }
+
     public static void main(final String... _args) {
         final CertRemoveOpts opts = new CertRemoveOpts();
         for (final String arg : _args) {
@@ -47,6 +78,8 @@ public class DcmRemoveCertCmd {
                 opts.setVerbose(true);
             } else if ("-h".equals(arg) || "--help".equals(arg)) {
                 printUsageAndExit();
+            } else if ("--check-usage".equals(arg)) {
+                opts.setCheckingUsage(true);
             } else if (arg.startsWith("--label=")) {
                 opts.setLabel(DcmUserOpts.extractValue(arg));
             } else if (arg.startsWith("--dcm-store=")) {
@@ -65,16 +98,34 @@ public class DcmRemoveCertCmd {
         }
         final AppLogger logger = AppLogger.getSingleton(opts.isVerbose());
         try {
+            DcmBackendFactory.warmUp(logger, opts.isYesMode());
             final DcmChangeTracker tracker = new DcmChangeTracker(logger, opts);
 
+            if (opts.isCheckingUsage()) {
+                logger.println_warn("WARNING: --check-usage is experimental. An application that is not listed may still use the certificate");
+            }
+            final List<String> users = opts.isCheckingUsage() ? getAppsUsingCert(logger, opts) : new LinkedList<String>();
+            if (!users.isEmpty()) {
+                logger.println_warn("WARNING: The certificate with label '" + opts.getLabel() + "' is assigned to the following application(s):");
+                for (final String app : users) {
+                    logger.println_warn("    " + app);
+                }
+                final String reply = opts.isYesMode() ? "y" : ConsoleQuestionAsker.get().askUserWithDefault("Remove it anyway? [y/N] ", "N");
+                if (!reply.toLowerCase().trim().startsWith("y")) {
+                    throw new IOException("User Canceled");
+                }
+            }
+
             KeyStore ks = KeyStore.getInstance("IBMi5OSKeyStore");
             try (FileInputStream fis = new FileInputStream(opts.getDcmStore())) {
                 ks.load(fis, opts.getDcmPassword().toCharArray());
             }
             ks.deleteEntry(opts.getLabel());
+            tracker.expectRemoved(opts.getLabel());
             try (FileOutputStream fos = new FileOutputStream(opts.getDcmStore())) {
                 ks.store(fos, opts.getDcmPassword().toCharArray());
             }
+            DcmSnapshotCache.get().invalidate(opts.getDcmStore());
             tracker.printChanges(logger, null);
             logger.println_success("SUCCESS!!!");
         } catch (final Exception e) {
@@ -98,6 +149,8 @@ public class DcmRemoveCertCmd {
                 + "                                       to indicate the *SYSTEM store (default)\n"
                 + "        --dcm-password=<password>:     Provide the DCM keystore password (not recommended)\n"
                 + "        --label=<label>:               Label of the certificate to remove\n"
+                + "        --check-usage:                 (experimental) Warn if the certificate is assigned to an\n"
+                + "                                       application\n"
                 ;
 		// @formatter:on
         System.err.println(usage);
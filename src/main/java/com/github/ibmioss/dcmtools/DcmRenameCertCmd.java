@@ -6,7 +6,9 @@ import java.io.IOException;
 import java.security.KeyStore;
 import java.security.cert.Certificate;
 
+import com.github.ibmioss.dcmtools.utils.DcmBackendFactory;
 import com.github.ibmioss.dcmtools.utils.DcmChangeTracker;
+import com.github.ibmioss.dcmtools.utils.DcmSnapshotCache;
 import com.github.ibmioss.dcmtools.utils.TempFileManager;
 import com.github.theprez.jcmdutils.AppLogger;
 import com.github.theprez.jcmdutils.ConsoleQuestionAsker;
@@ -86,6 +88,7 @@ public class DcmRenameCertCmd {
         }
         final AppLogger logger = AppLogger.getSingleton(opts.isVerbose());
         try {
+            DcmBackendFactory.warmUp(logger, opts.isYesMode());
             final DcmChangeTracker tracker = new DcmChangeTracker(logger, opts);
 
             KeyStore ks = KeyStore.getInstance("IBMi5OSKeyStore");
@@ -97,9 +100,12 @@ public class DcmRenameCertCmd {
             final String newLabel = opts.getNewLabel();
             ks.deleteEntry(oldLabel);
             ks.setCertificateEntry(newLabel, cert);
+            tracker.expectRemoved(oldLabel);
+            tracker.expectAdded(newLabel, cert);
             try (FileOutputStream fos = new FileOutputStream(opts.getDcmStore())) {
                 ks.store(fos, opts.getDcmPassword().toCharArray());
             }
+            DcmSnapshotCache.get().invalidate(opts.getDcmStore());
 
             tracker.printChanges(logger, null);
             logger.println_success("SUCCESS!!!");
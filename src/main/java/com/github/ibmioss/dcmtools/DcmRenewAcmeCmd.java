@@ -3,6 +3,7 @@ package com.github.ibmioss.dcmtools;
 import java.util.LinkedList;
 import java.util.List;
 
+import com.github.ibmioss.dcmtools.utils.DcmBackendFactory;
 import com.github.ibmioss.dcmtools.utils.TempFileManager;
 import com.github.theprez.jcmdutils.AppLogger;
 import com.github.theprez.jcmdutils.ProcessLauncher;
@@ -41,6 +42,7 @@ public class DcmRenewAcmeCmd {
                 logger.println_err("ERROR: no domain specified");
                 printUsageAndExit();
             }
+            DcmBackendFactory.warmUp(logger, opts.isYesMode());
             final List<String> files = new LinkedList<String>();
             for (final String domain : domains) {
                 final ProcessResult result = ProcessLauncher.exec("/QOpenSys/pkgs/bin/acme-client -F " + domain);
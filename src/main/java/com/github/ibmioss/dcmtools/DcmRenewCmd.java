@@ -4,6 +4,7 @@ import java.util.LinkedList;
 import java.util.List;
 
 import com.github.ibmioss.dcmtools.CertFileImporter.ImportOptions;
+import com.github.ibmioss.dcmtools.utils.DcmBackendFactory;
 import com.github.ibmioss.dcmtools.utils.TempFileManager;
 import com.github.theprez.jcmdutils.AppLogger;
 import com.github.theprez.jcmdutils.StringUtils;
@@ -41,6 +42,7 @@ public class DcmRenewCmd {
                 System.err.println(StringUtils.colorizeForTerminal("ERROR: no input files specified", TerminalColor.BRIGHT_RED));
                 printUsageAndExit();
             }
+            DcmBackendFactory.warmUp(logger, opts.isYesMode());
             final CertRenewer off = new CertRenewer(logger, files);
             off.doRenew(logger, opts);
             logger.println_success("SUCCESS!!!");
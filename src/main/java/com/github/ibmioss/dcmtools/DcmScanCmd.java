@@ -0,0 +1,221 @@
+package com.github.ibmioss.dcmtools;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+
+import com.github.ibmioss.dcmtools.utils.CertDigest;
+import com.github.ibmioss.dcmtools.utils.DcmBackendFactory;
+import com.github.ibmioss.dcmtools.utils.DcmStoreReader;
+import com.github.ibmioss.dcmtools.utils.FingerprintBloomFilter;
+import com.github.ibmioss.dcmtools.utils.KeyStoreInterrogator;
+import com.github.ibmioss.dcmtools.utils.TempFileManager;
+import com.github.theprez.jcmdutils.AppLogger;
+import com.github.theprez.jcmdutils.ConsoleQuestionAsker;
+import com.github.theprez.jcmdutils.StringUtils;
+import com.github.theprez.jcmdutils.StringUtils.TerminalColor;
+
+/**
+ * Scans several DCM certificate stores for certificates that are stored more than once, and for certificates that
+ * some stores have and others do not. Only a Bloom filter of each store is held while scanning; the stores are then
+ * read a second time (normally from the snapshot cache) and only probable matches are confirmed exactly.
+ */
+public class DcmScanCmd {
+
+    private static String join(final Collection<String> _labels) {
+        final StringBuilder ret = new StringBuilder();
+        for (final String label : _labels) {
+            if (0 < ret.length()) {
+                ret.append(", ");
+            }
+            ret.append('\'').append(label).append('\'');
+        }
+        return ret.toString();
+    }
+
+    private static void addMissing(final Map<String, Map<ByteBuffer, String>> _missingByStore, final String _store, final ByteBuffer _hash, final String _description) {
+        Map<ByteBuffer, String> missing = _missingByStore.get(_store);
+        if (null == missing) {
+            missing = new LinkedHashMap<ByteBuffer, String>();
+            _missingByStore.put(_store, missing);
+        }
+        if (!missing.containsKey(_hash)) {
+            missing.put(_hash, _description);
+        }
+    }
+
+    public static void main(final String... _args) {
+        final DcmUserOpts opts = new DcmUserOpts();
+        final Set<String> stores = new LinkedHashSet<String>();
+        String dcmPw = null;
+        for (final String arg : _args) {
+            if ("-y".equals(arg)) {
+                opts.setYesMode(true);
+            } else if ("-v".equals(arg)) {
+                opts.setVerbose(true);
+            } else if ("-h".equals(arg) || "--help".equals(arg)) {
+                printUsageAndExit();
+            } else if (arg.startsWith("--dcm-password=")) {
+                dcmPw = DcmUserOpts.extractValue(arg);
+            } else if (arg.startsWith("-")) {
+                System.err.println(StringUtils.colorizeForTerminal("ERROR: Unknown option '" + arg + "'", TerminalColor.BRIGHT_RED));
+                printUsageAndExit();
+            } else {
+                stores.add("system".equalsIgnoreCase(arg) || "*system".equalsIgnoreCase(arg) ? DcmUserOpts.SYSTEM_DCM_STORE : arg);
+            }
+        }
+        if (2 > stores.size()) {
+            System.err.println(StringUtils.colorizeForTerminal("ERROR: at least two stores must be specified", TerminalColor.BRIGHT_RED));
+            printUsageAndExit();
+        }
+        final AppLogger logger = AppLogger.getSingleton(opts.isVerbose());
+        int exitStatus = 0;
+        try {
+            final Map<String, String> passwords = new HashMap<String, String>();
+            for (final String store : stores) {
+                if (StringUtils.isNonEmpty(dcmPw)) {
+                    passwords.put(store, dcmPw);
+                } else if (opts.isYesMode()) {
+                    // the same failure as DcmUserOpts.getDcmPassword(), before any store is read
+                    throw new IOException("DCM keystore password not specified");
+                } else {
+                    passwords.put(store, ConsoleQuestionAsker.get().askUserForPwd("Enter password for DCM keystore " + store + ": "));
+                }
+            }
+            for (final String store : stores) {
+                if (!DcmStoreReader.canReadDirectly(store)) {
+                    DcmBackendFactory.warmUp(logger, opts.isYesMode());
+                    break;
+                }
+            }
+
+            // First pass: summarize every store as a Bloom filter of its fingerprints
+            final Map<String, FingerprintBloomFilter> filters = new LinkedHashMap<String, FingerprintBloomFilter>();
+            for (final String store : stores) {
+                final Map<String, CertDigest> certs = read(logger, opts, store, passwords.get(store));
+                final FingerprintBloomFilter filter = new FingerprintBloomFilter(certs.size());
+                for (final CertDigest cert : certs.values()) {
+                    filter.add(cert.getDerHash());
+                }
+                filters.put(store, filter);
+                logger.println_verbose("Summarized " + certs.size() + " certificate(s) in " + store + " in " + filter.getSizeInBytes() + " bytes");
+            }
+
+            // Second pass: every store records its own certificates that any other store probably has. A certificate
+            // that really is in several stores is always recorded by each of them, so whatever is recorded by only one
+            // store was a false positive. A store whose filter does not have a certificate certainly lacks it.
+            final Map<ByteBuffer, Map<String, List<String>>> candidates = new LinkedHashMap<ByteBuffer, Map<String, List<String>>>();
+            final Map<ByteBuffer, String> fingerprints = new HashMap<ByteBuffer, String>();
+            final Map<String, Map<ByteBuffer, String>> missingByStore = new LinkedHashMap<String, Map<ByteBuffer, String>>();
+            for (final String store : stores) {
+                // grouped per store, so that a certificate stored twice in the same store is found too
+                final Map<ByteBuffer, List<String>> labelsByHash = new LinkedHashMap<ByteBuffer, List<String>>();
+                final Map<ByteBuffer, CertDigest> certsByHash = new HashMap<ByteBuffer, CertDigest>();
+                for (final Entry<String, CertDigest> entry : read(logger, opts, store, passwords.get(store)).entrySet()) {
+                    final ByteBuffer hash = entry.getValue().getDerHash();
+                    List<String> labels = labelsByHash.get(hash);
+                    if (null == labels) {
+                        labels = new LinkedList<String>();
+                        labelsByHash.put(hash, labels);
+                        certsByHash.put(hash, entry.getValue());
+                    }
+                    labels.add(entry.getKey());
+                }
+                for (final Entry<ByteBuffer, List<String>> entry : labelsByHash.entrySet()) {
+                    final String fingerprint = certsByHash.get(entry.getKey()).getFingerprint();
+                    boolean isProbablyElsewhere = false;
+                    for (final Entry<String, FingerprintBloomFilter> filter : filters.entrySet()) {
+                        if (filter.getKey().equals(store)) {
+                            continue;
+                        }
+                        if (filter.getValue().mightContain(entry.getKey())) {
+                            isProbablyElsewhere = true;
+                        } else {
+                            addMissing(missingByStore, filter.getKey(), entry.getKey(), fingerprint + " (" + join(entry.getValue()) + " in " + store + ")");
+                        }
+                    }
+                    if (1 == entry.getValue().size() && !isProbablyElsewhere) {
+                        continue;
+                    }
+                    Map<String, List<String>> where = candidates.get(entry.getKey());
+                    if (null == where) {
+                        where = new LinkedHashMap<String, List<String>>();
+                        candidates.put(entry.getKey(), where);
+                        fingerprints.put(entry.getKey(), fingerprint);
+                    }
+                    where.put(store, entry.getValue());
+                }
+            }
+
+            int numDuplicates = 0;
+            for (final Entry<ByteBuffer, Map<String, List<String>>> candidate : candidates.entrySet()) {
+                final Map<String, List<String>> where = candidate.getValue();
+                final String fingerprint = fingerprints.get(candidate.getKey());
+                // the stores whose filters gave a false positive are missing the certificate too
+                final Entry<String, List<String>> example = where.entrySet().iterator().next();
+                for (final String store : stores) {
+                    if (!where.containsKey(store)) {
+                        addMissing(missingByStore, store, candidate.getKey(), fingerprint + " (" + join(example.getValue()) + " in " + example.getKey() + ")");
+                    }
+                }
+                final boolean isInOneStoreOnce = 1 == where.size() && 1 == example.getValue().size();
+                if (isInOneStoreOnce) {
+                    continue;
+                }
+                numDuplicates++;
+                logger.println("Certificate " + fingerprint + " is stored in " + where.size() + " of " + stores.size() + " store(s):");
+                for (final Entry<String, List<String>> store : where.entrySet()) {
+                    logger.println("    " + store.getKey() + ": " + join(store.getValue()));
+                }
+            }
+            for (final Entry<String, Map<ByteBuffer, String>> missing : missingByStore.entrySet()) {
+                logger.println("Store " + missing.getKey() + " is missing " + missing.getValue().size() + " certificate(s) that other stores have:");
+                for (final String cert : missing.getValue().values()) {
+                    logger.println("    " + cert);
+                }
+            }
+            if (0 == numDuplicates && missingByStore.isEmpty()) {
+                logger.println_success("No certificate is stored more than once, and every store has the same certificates");
+            } else {
+                exitStatus = 1;
+            }
+        } catch (final Exception e) {
+            logger.printExceptionStack_verbose(e);
+            logger.println_err(e.getLocalizedMessage());
+            TempFileManager.cleanup();
+            System.exit(-1);
+        } finally {
+            TempFileManager.cleanup();
+        }
+        System.exit(exitStatus);
+    }
+
+    private static void printUsageAndExit() {
+        // @formatter:off
+        final String usage = "Usage: dcmscan [options] <store> <store> [<store> ..]\n"
+                + "\n"
+                + "    Each store is the filename of a DCM keystore, or 'system' for the *SYSTEM store\n"
+                + "\n"
+                + "    Valid options include:\n"
+                + "        -y:                            Do not ask for confirmation\n"
+                + "        --dcm-password=<password>:     Provide the password of every DCM keystore (not recommended)\n"
+                + "\n"
+                + "    Exits with status 0 if no certificate is duplicated or missing from a store, and 1 if not\n"
+                ;
+        // @formatter:on
+        System.err.println(usage);
+        System.exit(-1);
+    }
+
+    private static Map<String, CertDigest> read(final AppLogger _logger, final DcmUserOpts _opts, final String _store, final String _pw) throws Exception {
+        return new KeyStoreInterrogator(DcmStoreReader.read(_logger, _opts.isYesMode(), _store, _pw).getKeyStore()).getDigests();
+    }
+}
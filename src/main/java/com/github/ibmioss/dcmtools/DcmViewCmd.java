@@ -1,9 +1,20 @@
 package com.github.ibmioss.dcmtools;
 
+import java.io.IOException;
 import java.security.KeyStore;
+import java.security.KeyStoreException;
+import java.text.SimpleDateFormat;
 import java.util.Collections;
+import java.util.Date;
+import java.util.List;
 
 import com.github.ibmioss.dcmtools.utils.CertUtils;
+import com.github.ibmioss.dcmtools.utils.DcmBackendFactory;
+import com.github.ibmioss.dcmtools.utils.DcmChangeJournal;
+import com.github.ibmioss.dcmtools.utils.DcmChangeJournal.JournalEntry;
+import com.github.ibmioss.dcmtools.utils.DcmStoreReader;
+import com.github.ibmioss.dcmtools.utils.HostnameIndex;
+import com.github.ibmioss.dcmtools.utils.HostnameIndex.Match;
 import com.github.ibmioss.dcmtools.utils.TempFileManager;
 import com.github.theprez.jcmdutils.AppLogger;
 import com.github.theprez.jcmdutils.StringUtils;
@@ -18,6 +29,9 @@ public class DcmViewCmd {
 
     public static void main(final String... _args) {
         final DcmUserOpts opts = new DcmUserOpts();
+        Long changesSince = null;
+        boolean isDigestOnly = false;
+        String host = null;
         for (final String arg : _args) {
             if ("-y".equals(arg)) {
                 opts.setYesMode(true);
@@ -34,6 +48,17 @@ public class DcmViewCmd {
                 }
             } else if (arg.startsWith("--dcm-password=")) {
                 opts.setDcmPassword(DcmUserOpts.extractValue(arg));
+            } else if (arg.startsWith("--host=")) {
+                host = DcmUserOpts.extractValue(arg);
+            } else if ("--digest".equals(arg)) {
+                isDigestOnly = true;
+            } else if (arg.startsWith("--changes-since=")) {
+                try {
+                    changesSince = Long.parseLong(DcmUserOpts.extractValue(arg).trim());
+                } catch (final NumberFormatException e) {
+                    System.err.println(StringUtils.colorizeForTerminal("ERROR: '" + arg + "' is not a valid sequence number", TerminalColor.BRIGHT_RED));
+                    printUsageAndExit();
+                }
             } else {
                 System.err.println(StringUtils.colorizeForTerminal("ERROR: Unknown option '" + arg + "'", TerminalColor.BRIGHT_RED));
                 printUsageAndExit();
@@ -41,7 +66,22 @@ public class DcmViewCmd {
         }
         final AppLogger logger = AppLogger.getSingleton(opts.isVerbose());
         try {
-            KeyStore ks = CertUtils.exportDcmStoreToKeystoreObj(logger, opts.isYesMode(), opts.getDcmStore(), opts.getDcmPassword());
+            if (null != changesSince) {
+                printJournal(logger, DcmBackendFactory.getRemoteSystemName(opts.isYesMode()), opts.getDcmStore(), changesSince);
+                return;
+            }
+            if (!DcmStoreReader.canReadDirectly(opts.getDcmStore())) {
+                DcmBackendFactory.warmUp(logger, opts.isYesMode());
+            }
+            if (isDigestOnly) {
+                logger.println(DcmStoreReader.readDigest(logger, opts.isYesMode(), opts.getDcmStore(), opts.getDcmPassword()).getRootHash());
+                return;
+            }
+            if (null != host) {
+                printHostMatches(logger, opts.getDcmStore(), DcmStoreReader.readHostnameIndex(logger, opts.isYesMode(), opts.getDcmStore(), opts.getDcmPassword()), host);
+                return;
+            }
+            final KeyStore ks = DcmStoreReader.read(logger, opts.isYesMode(), opts.getDcmStore(), opts.getDcmPassword()).getKeyStore();
             for (final String label : Collections.list(ks.aliases())) {
                 logger.println("label '" + label + "'");
                 logger.println(StringUtils.colorizeForTerminal(CertUtils.getCertInfoStr(ks.getCertificate(label), "    "), TerminalColor.CYAN));
@@ -57,6 +97,34 @@ public class DcmViewCmd {
 
     }
 
+    private static void printJournal(final AppLogger _logger, final String _systemName, final String _dcmStore, final long _since) throws IOException {
+        final SimpleDateFormat simpleDateFormat = new SimpleDateFormat("yyyy-MM-dd @ HH:mm:ssZ");
+        for (final JournalEntry entry : DcmChangeJournal.forStore(_systemName, _dcmStore).getChangesSince(_since)) {
+            String line = entry.getSeq() + " " + simpleDateFormat.format(new Date(entry.getTimestamp())) + " " + entry.getType() + " '" + entry.getLabel() + "'";
+            if (null != entry.getOldFingerprint()) {
+                line += " old=" + entry.getOldFingerprint();
+            }
+            if (null != entry.getNewFingerprint()) {
+                line += " new=" + entry.getNewFingerprint();
+            }
+            _logger.println(line);
+        }
+    }
+
+    private static void printHostMatches(final AppLogger _logger, final String _dcmStore, final HostnameIndex _index, final String _host) {
+        final List<Match> matches = _index.lookup(_host);
+        if (matches.isEmpty()) {
+            _logger.println_warn("No certificate in " + _dcmStore + " covers " + _host);
+            return;
+        }
+        final SimpleDateFormat simpleDateFormat = new SimpleDateFormat("yyyy-MM-dd @ HH:mm:ssZ");
+        for (final Match match : matches) {
+            final String expiry = (match.isExpired() ? "expired " : "expires ") + simpleDateFormat.format(match.getNotAfter());
+            _logger.println("label '" + match.getAlias() + "' covers " + _host + " as '" + match.getName() + "', "
+                    + StringUtils.colorizeForTerminal(expiry, match.isExpired() ? TerminalColor.BRIGHT_RED : TerminalColor.CYAN));
+        }
+    }
+
     private static void printUsageAndExit() {
         // @formatter:off
 		final String usage = "Usage: dcmview [options]\n"
@@ -66,6 +134,12 @@ public class DcmViewCmd {
                                 + "        --dcm-store=<system/filename>: Specify the target keystore, or specify 'system'\n"
                                 + "                                       to indicate the *SYSTEM store (default)\n"
                                 + "        --dcm-password=<password>:     Provide the DCM keystore password (not recommended)\n"
+                                + "        --changes-since=<n>:           Instead of the store contents, list the changes made\n"
+                                + "                                       through these tools after sequence number <n>\n"
+                                + "        --host=<hostname>:             Instead of the store contents, list the certificates whose\n"
+                                + "                                       subject alternative names or CN cover <hostname>\n"
+                                + "        --digest:                      Instead of the store contents, print a digest of them,\n"
+                                + "                                       which is the same for any two stores with the same contents\n"
                                 ;
 		// @formatter:on
         System.err.println(usage);
@@ -0,0 +1,209 @@
+package com.github.ibmioss.dcmtools.utils;
+
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.cert.Certificate;
+import java.security.cert.CertificateEncodingException;
+import java.security.cert.X509Certificate;
+import java.util.Arrays;
+
+import com.github.theprez.jcmdutils.AppLogger;
+
+/**
+ * A certificate together with the encodings used to compare it to other certificates (DER, to-be-signed portion,
+ * signature and public key) and their SHA-256 hashes. Each is computed at most once, the first time it is needed.
+ * Two digests are {@link #equals(Object) equal} when their certificates have the same DER encoding; the looser
+ * comparison done by {@link CertUtils#areCertsEqual(AppLogger, Certificate, Certificate)} is available through
+ * {@link #matches(AppLogger, CertDigest)}.
+ */
+public final class CertDigest {
+
+    public static CertDigest of(final Certificate _cert) {
+        return new CertDigest(_cert);
+    }
+
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    private static ByteBuffer hashOf(final byte[] _data) {
+        return ByteBuffer.wrap(sha256(_data)).asReadOnlyBuffer();
+    }
+
+    /**
+     * A new SHA-256 digester. This is the one hash used throughout these tools, for certificate fingerprints as well
+     * as for cache and journal file names and store digests.
+     */
+    public static MessageDigest newSha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (final NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public static byte[] sha256(final byte[] _data) {
+        return newSha256().digest(_data);
+    }
+
+    /**
+     * Lowercase hex, two digits per byte, as fingerprints are shown.
+     */
+    public static String toHex(final byte[] _bytes) {
+        final char[] ret = new char[2 * _bytes.length];
+        for (int i = 0; i < _bytes.length; ++i) {
+            ret[2 * i] = HEX_DIGITS[(_bytes[i] >> 4) & 0xf];
+            ret[2 * i + 1] = HEX_DIGITS[_bytes[i] & 0xf];
+        }
+        return new String(ret);
+    }
+
+    private final Certificate m_cert;
+    private volatile byte[] m_der = null;
+    private volatile ByteBuffer m_derHash = null;
+    private volatile byte[] m_signature = null;
+    private volatile byte[] m_spki = null;
+    private volatile ByteBuffer m_spkiHash = null;
+    private volatile byte[] m_tbs = null;
+    private volatile ByteBuffer m_tbsHash = null;
+
+    private CertDigest(final Certificate _cert) {
+        if (null == _cert) {
+            throw new NullPointerException("certificate");
+        }
+        m_cert = _cert;
+    }
+
+    @Override
+    public boolean equals(final Object _obj) {
+        if (this == _obj) {
+            return true;
+        }
+        if (!(_obj instanceof CertDigest)) {
+            return false;
+        }
+        try {
+            return getDerHash().equals(((CertDigest) _obj).getDerHash());
+        } catch (final CertificateEncodingException e) {
+            return m_cert.equals(((CertDigest) _obj).m_cert);
+        }
+    }
+
+    public Certificate getCertificate() {
+        return m_cert;
+    }
+
+    private byte[] getDer() throws CertificateEncodingException {
+        byte[] ret = m_der;
+        if (null == ret) {
+            m_der = ret = m_cert.getEncoded();
+        }
+        return ret;
+    }
+
+    /**
+     * SHA-256 of the DER encoding of the certificate.
+     */
+    public ByteBuffer getDerHash() throws CertificateEncodingException {
+        ByteBuffer ret = m_derHash;
+        if (null == ret) {
+            m_derHash = ret = hashOf(getDer());
+        }
+        return ret.duplicate();
+    }
+
+    /**
+     * Hex SHA-256 of the DER encoding of the certificate, as commonly shown as its fingerprint.
+     */
+    public String getFingerprint() throws CertificateEncodingException {
+        final ByteBuffer hash = getDerHash();
+        final byte[] bytes = new byte[hash.remaining()];
+        hash.get(bytes);
+        return toHex(bytes);
+    }
+
+    private byte[] getSignature() {
+        byte[] ret = m_signature;
+        if (null == ret && isX509()) {
+            m_signature = ret = ((X509Certificate) m_cert).getSignature();
+        }
+        return ret;
+    }
+
+    private byte[] getSpki() {
+        byte[] ret = m_spki;
+        if (null == ret) {
+            m_spki = ret = m_cert.getPublicKey().getEncoded();
+        }
+        return ret;
+    }
+
+    /**
+     * SHA-256 of the encoded public key of the certificate.
+     */
+    public ByteBuffer getSpkiHash() {
+        ByteBuffer ret = m_spkiHash;
+        if (null == ret) {
+            m_spkiHash = ret = hashOf(getSpki());
+        }
+        return ret.duplicate();
+    }
+
+    private byte[] getTbs() throws CertificateEncodingException {
+        byte[] ret = m_tbs;
+        if (null == ret && isX509()) {
+            m_tbs = ret = ((X509Certificate) m_cert).getTBSCertificate();
+        }
+        return ret;
+    }
+
+    /**
+     * SHA-256 of the to-be-signed portion of the certificate, or <tt>null</tt> if it is not an X.509 certificate.
+     */
+    public ByteBuffer getTbsHash() throws CertificateEncodingException {
+        ByteBuffer ret = m_tbsHash;
+        if (null == ret && isX509()) {
+            m_tbsHash = ret = hashOf(getTbs());
+        }
+        return null == ret ? null : ret.duplicate();
+    }
+
+    @Override
+    public int hashCode() {
+        try {
+            return getDerHash().hashCode();
+        } catch (final CertificateEncodingException e) {
+            return m_cert.hashCode();
+        }
+    }
+
+    public boolean isX509() {
+        return m_cert instanceof X509Certificate;
+    }
+
+    /**
+     * Whether the two certificates are the same for DCM's purposes: the same to-be-signed data, signature, public key
+     * or encoding.
+     */
+    public boolean matches(final AppLogger _logger, final CertDigest _other) throws CertificateEncodingException {
+        if (!isX509() || !_other.isX509()) {
+            return m_cert.equals(_other.m_cert);
+        }
+        if (Arrays.equals(getTbs(), _other.getTbs())) {
+            _logger.println_verbose("TBC cert match");
+            return true;
+        }
+        if (Arrays.equals(getSignature(), _other.getSignature())) {
+            _logger.println_verbose("signatures match");
+            return true;
+        }
+        if (Arrays.equals(getSpki(), _other.getSpki())) {
+            _logger.println_verbose("public keys match");
+            return true;
+        }
+        if (Arrays.equals(getDer(), _other.getDer())) {
+            _logger.println_verbose("DER-encoded information matches");
+            return true;
+        }
+        return m_cert.equals(_other.m_cert);
+    }
+}
@@ -12,7 +12,6 @@ import java.security.cert.CertificateEncodingException;
 import java.security.cert.CertificateException;
 import java.security.cert.X509Certificate;
 import java.text.SimpleDateFormat;
-import java.util.Arrays;
 import java.util.Collections;
 
 import javax.security.auth.x500.X500Principal;
@@ -26,32 +25,9 @@ import com.ibm.as400.access.ObjectDoesNotExistException;
 public class CertUtils {
 
     public static boolean areCertsEqual(final AppLogger _logger, final Certificate _cert1, final Certificate _cert2) throws CertificateEncodingException {
-        if (!(_cert1 instanceof X509Certificate) || !(_cert2 instanceof X509Certificate)) {
-            return _cert1.equals(_cert2);
-        }
-        final X509Certificate x1 = (X509Certificate) _cert1;
-        final X509Certificate x2 = (X509Certificate) _cert2;
-        if (Arrays.equals(x1.getTBSCertificate(), x2.getTBSCertificate())) {
-            _logger.println_verbose("TBC cert match");
-            return true;
-        }
-        if (Arrays.equals(x1.getSignature(), x2.getSignature())) {
-            _logger.println_verbose("signatures match");
-            return true;
-        }
-        if (Arrays.equals(x1.getPublicKey().getEncoded(), x2.getPublicKey().getEncoded())) {
-            _logger.println_verbose("public keys match");
-            return true;
-        }
-        if (Arrays.equals(x1.getEncoded(), x2.getEncoded())) {
-            _logger.println_verbose("DER-encoded information matches");
-            return true;
-        }
-        if (x1.toString().equals(x2.toString())) {
-            return true;
-        }
-        return x1.equals(x2);
+        return CertDigest.of(_cert1).matches(_logger, CertDigest.of(_cert2));
     }
+
     // here for debugging purposes
     // private static void dumpCertToFile(X509Certificate _cert, String _file) throws IOException {
     // try(FileWriter fw = new FileWriter(_file)) {
@@ -67,7 +43,7 @@ public class CertUtils {
         } else {
             dest = new File(_dest);
         }
-        try (DcmApiCaller apiCaller = new DcmApiCaller(_isYesMode)) {
+        try (DcmBackend apiCaller = DcmBackendFactory.open(_isYesMode)) {
             apiCaller.callQykmExportKeyStore(_logger, _dcmStore, _dcmStorePw, dest.getAbsolutePath(), StringUtils.isEmpty(_pw) ?TempFileManager.TEMP_KEYSTORE_PWD: new String(_pw));
         }
         return dest;
@@ -99,9 +75,30 @@ public class CertUtils {
         return -1 != ((X509Certificate) _cert).getBasicConstraints();
     }
 
-    public static KeyStore mergeKeyStore(final KeyStore _dest, final KeyStore _src) throws KeyStoreException {
+    /**
+     * Returns <tt>_alias</tt>, or if the key store already has an entry by that name, the first of <tt>_alias.2</tt>,
+     * <tt>_alias.3</tt>, ... that it does not have.
+     */
+    public static String getUnusedAlias(final AppLogger _logger, final KeyStore _ks, final String _alias) throws KeyStoreException {
+        if (!_ks.containsAlias(_alias)) {
+            return _alias;
+        }
+        int counter = 2;
+        while (_ks.containsAlias(_alias + "." + counter)) {
+            counter++;
+        }
+        final String ret = _alias + "." + counter;
+        _logger.println_verbose("Label '" + _alias + "' is already taken. Using '" + ret + "' instead");
+        return ret;
+    }
+
+    /**
+     * Copies the certificates of <tt>_src</tt> into <tt>_dest</tt>. Any alias that <tt>_dest</tt> already has is given
+     * a suffix rather than replaced.
+     */
+    public static KeyStore mergeKeyStore(final AppLogger _logger, final KeyStore _dest, final KeyStore _src) throws KeyStoreException {
         for (final String alias : Collections.list(_src.aliases())) {
-            _dest.setCertificateEntry(alias, _src.getCertificate(alias));
+            _dest.setCertificateEntry(getUnusedAlias(_logger, _dest, alias), _src.getCertificate(alias));
         }
         return _dest;
     }
@@ -0,0 +1,264 @@
+package com.github.ibmioss.dcmtools.utils;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.PushbackInputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.cert.Certificate;
+import java.security.cert.CertificateException;
+import java.security.cert.CertificateFactory;
+import java.security.cert.X509Certificate;
+import java.util.Base64;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.Set;
+
+/**
+ * Reads certificates one at a time from a PEM bundle or a sequence of DER-encoded certificates, so that only the
+ * certificate being parsed (plus the fingerprints seen so far) is held in memory, however large the bundle is. PKCS#7
+ * bundles, which cannot be split without parsing them, are read whole. Certificates that were already returned, and
+ * with {@link #setCaOnly(boolean)} those that are not CAs, are skipped as they are read. The caller can stop at any
+ * point by no longer calling {@link #next()}.
+ */
+public class CertificateStreamReader implements Closeable {
+
+    private static final String PEM_BEGIN = "-----BEGIN ";
+    private static final String PEM_END = "-----END ";
+    private static final int DER_OID = 0x06;
+    private static final int DER_SEQUENCE = 0x30;
+
+    static boolean isCertCa(final Certificate _cert) {
+        if (_cert instanceof X509Certificate) {
+            return ((X509Certificate) _cert).getBasicConstraints() != -1;
+        }
+        return false;
+    }
+
+    private final CertificateFactory m_factory;
+    private final PushbackInputStream m_in;
+    private boolean m_isCaOnly = false;
+    /** Set once the first byte has been looked at */
+    private Boolean m_isPem = null;
+    private int m_numDuplicates = 0;
+    private int m_numNotCa = 0;
+    private int m_numRead = 0;
+    private final LinkedList<Certificate> m_pending = new LinkedList<Certificate>();
+    private BufferedReader m_pemReader = null;
+    private final Set<ByteBuffer> m_seen = new HashSet<ByteBuffer>();
+
+    public CertificateStreamReader(final InputStream _in) throws CertificateException {
+        m_in = new PushbackInputStream(_in, 1);
+        m_factory = CertificateFactory.getInstance("X.509");
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (null != m_pemReader) {
+            m_pemReader.close();
+        }
+        m_in.close();
+    }
+
+    /**
+     * Number of certificates skipped because an identical one was already returned.
+     */
+    public int getNumDuplicates() {
+        return m_numDuplicates;
+    }
+
+    /**
+     * Number of certificates skipped because they are not CAs.
+     */
+    public int getNumNotCa() {
+        return m_numNotCa;
+    }
+
+    /**
+     * Number of certificates parsed so far, including those that were skipped.
+     */
+    public int getNumRead() {
+        return m_numRead;
+    }
+
+    /**
+     * Returns the next certificate, or <tt>null</tt> at the end of the input.
+     */
+    public Certificate next() throws IOException, CertificateException {
+        while (true) {
+            while (!m_pending.isEmpty()) {
+                final Certificate cert = m_pending.removeFirst();
+                m_numRead++;
+                if (m_isCaOnly && !isCertCa(cert)) {
+                    m_numNotCa++;
+                    continue;
+                }
+                if (!m_seen.add(CertDigest.of(cert).getDerHash())) {
+                    m_numDuplicates++;
+                    continue;
+                }
+                return cert;
+            }
+            if (!readMore()) {
+                return null;
+            }
+        }
+    }
+
+    /**
+     * Reads the next DER element, returning its full encoding (tag and length included), or <tt>null</tt> at the end
+     * of the input.
+     */
+    private byte[] readDerElement() throws IOException {
+        final int tag = m_in.read();
+        if (-1 == tag) {
+            return null;
+        }
+        final ByteArrayOutputStream header = new ByteArrayOutputStream();
+        header.write(tag);
+        final int firstLengthByte = m_in.read();
+        if (-1 == firstLengthByte) {
+            throw new IOException("Truncated DER element");
+        }
+        header.write(firstLengthByte);
+        long length;
+        if (0x80 > firstLengthByte) {
+            length = firstLengthByte;
+        } else if (0x80 == firstLengthByte) {
+            // indefinite length: the element runs to the end of the input
+            final ByteArrayOutputStream rest = new ByteArrayOutputStream();
+            rest.write(header.toByteArray());
+            final byte[] buf = new byte[16 * 1024];
+            int bytesRead;
+            while (-1 != (bytesRead = m_in.read(buf))) {
+                rest.write(buf, 0, bytesRead);
+            }
+            return rest.toByteArray();
+        } else {
+            final int numLengthBytes = firstLengthByte & 0x7f;
+            if (4 < numLengthBytes) {
+                throw new IOException("DER element too long");
+            }
+            length = 0;
+            for (int i = 0; i < numLengthBytes; ++i) {
+                final int b = m_in.read();
+                if (-1 == b) {
+                    throw new IOException("Truncated DER element");
+                }
+                header.write(b);
+                length = (length << 8) | b;
+            }
+        }
+        if (Integer.MAX_VALUE - header.size() < length) {
+            throw new IOException("DER element too long");
+        }
+        final byte[] ret = new byte[header.size() + (int) length];
+        System.arraycopy(header.toByteArray(), 0, ret, 0, header.size());
+        new DataInputStream(m_in).readFully(ret, header.size(), (int) length);
+        return ret;
+    }
+
+    /**
+     * Parses the next block of input into {@link #m_pending}, returning <tt>false</tt> at the end of the input.
+     */
+    private boolean readMore() throws IOException, CertificateException {
+        if (null == m_isPem) {
+            int first;
+            do {
+                first = m_in.read();
+            } while (-1 != first && Character.isWhitespace(first));
+            if (-1 == first) {
+                return false;
+            }
+            m_in.unread(first);
+            m_isPem = DER_SEQUENCE != first;
+            if (m_isPem) {
+                m_pemReader = new BufferedReader(new InputStreamReader(m_in, StandardCharsets.ISO_8859_1));
+            }
+        }
+        return m_isPem ? readPemBlock() : readDerBlock();
+    }
+
+    private boolean readDerBlock() throws IOException, CertificateException {
+        final byte[] element = readDerElement();
+        if (null == element) {
+            return false;
+        }
+        if (DER_SEQUENCE != (element[0] & 0xff)) {
+            throw new CertificateException("Unexpected DER tag " + (element[0] & 0xff));
+        }
+        if (isPkcs7(element)) {
+            m_pending.addAll(m_factory.generateCertificates(new ByteArrayInputStream(element)));
+        } else {
+            m_pending.add(m_factory.generateCertificate(new ByteArrayInputStream(element)));
+        }
+        return true;
+    }
+
+    private boolean readPemBlock() throws IOException, CertificateException {
+        String line;
+        // text outside of the armor (such as 'openssl x509 -text' output) is ignored
+        while (null != (line = m_pemReader.readLine())) {
+            line = line.trim();
+            if (!line.startsWith(PEM_BEGIN) || !line.endsWith("-----")) {
+                continue;
+            }
+            final String type = line.substring(PEM_BEGIN.length(), line.length() - 5);
+            final String end = PEM_END + type + "-----";
+            final StringBuilder base64 = new StringBuilder();
+            while (null != (line = m_pemReader.readLine())) {
+                line = line.trim();
+                if (end.equals(line)) {
+                    break;
+                }
+                // skip RFC 1421 headers
+                if (!line.contains(":")) {
+                    base64.append(line);
+                }
+            }
+            if (null == line) {
+                throw new CertificateException("Missing '" + end + "'");
+            }
+            final byte[] der;
+            try {
+                der = Base64.getMimeDecoder().decode(base64.toString());
+            } catch (final IllegalArgumentException e) {
+                throw new CertificateException("Invalid base64 in " + type + " block", e);
+            }
+            // an OpenSSL 'TRUSTED CERTIFICATE' is a certificate followed by trust settings, which are not read
+            if ("CERTIFICATE".equals(type) || "X509 CERTIFICATE".equals(type) || "X.509 CERTIFICATE".equals(type) || "TRUSTED CERTIFICATE".equals(type)) {
+                m_pending.add(m_factory.generateCertificate(new ByteArrayInputStream(der)));
+                return true;
+            }
+            if ("PKCS7".equals(type) || "PKCS #7 SIGNED DATA".equals(type)) {
+                m_pending.addAll(m_factory.generateCertificates(new ByteArrayInputStream(der)));
+                return true;
+            }
+            // anything else, such as a private key, is not ours to read
+        }
+        return false;
+    }
+
+    /**
+     * Whether the DER element is a PKCS#7 ContentInfo (a SEQUENCE that starts with an OBJECT IDENTIFIER) rather than
+     * a certificate (a SEQUENCE that starts with a SEQUENCE).
+     */
+    private boolean isPkcs7(final byte[] _element) {
+        final int firstLengthByte = _element[1] & 0xff;
+        final int contentOffset = 0x80 >= firstLengthByte ? 2 : 2 + (firstLengthByte & 0x7f);
+        return contentOffset < _element.length && DER_OID == (_element[contentOffset] & 0xff);
+    }
+
+    /**
+     * Whether to skip certificates that are not certificate authorities.
+     */
+    public void setCaOnly(final boolean _isCaOnly) {
+        m_isCaOnly = _isCaOnly;
+    }
+}
@@ -1,252 +1,336 @@
 package com.github.ibmioss.dcmtools.utils;
 
+import static com.github.ibmioss.dcmtools.utils.DcmCallDescriptor.CCSID_1208;
+import static com.github.ibmioss.dcmtools.utils.DcmCallDescriptor.CERT_ID_TYPE_LABEL;
+import static com.github.ibmioss.dcmtools.utils.DcmCallDescriptor.FORMAT_OBJN0100;
+import static com.github.ibmioss.dcmtools.utils.DcmCallDescriptor.VERSION_PKCS12V3;
+import static com.github.ibmioss.dcmtools.utils.DcmCallDescriptor.bin4;
+import static com.github.ibmioss.dcmtools.utils.DcmCallDescriptor.concat;
+import static com.github.ibmioss.dcmtools.utils.DcmCallDescriptor.fromBin4;
+import static com.github.ibmioss.dcmtools.utils.DcmCallDescriptor.fromText;
+import static com.github.ibmioss.dcmtools.utils.DcmCallDescriptor.text;
+import static com.github.ibmioss.dcmtools.utils.DcmCallDescriptor.text1208;
+
 import java.beans.PropertyVetoException;
-import java.io.Closeable;
+import java.io.File;
 import java.io.IOException;
 
+import com.github.ibmioss.dcmtools.utils.DcmCertUsageRegistry.CertUsage;
 import com.github.theprez.jcmdutils.AppLogger;
-import com.github.theprez.jcmdutils.ConsoleQuestionAsker;
 import com.github.theprez.jcmdutils.StringUtils;
 import com.github.theprez.jcmdutils.StringUtils.TerminalColor;
 import com.ibm.as400.access.AS400;
-import com.ibm.as400.access.AS400Bin4;
-import com.ibm.as400.access.AS400DataType;
 import com.ibm.as400.access.AS400Message;
 import com.ibm.as400.access.AS400SecurityException;
-import com.ibm.as400.access.AS400Structure;
-import com.ibm.as400.access.AS400Text;
 import com.ibm.as400.access.ErrorCodeParameter;
 import com.ibm.as400.access.ErrorCompletingRequestException;
 import com.ibm.as400.access.ObjectDoesNotExistException;
 import com.ibm.as400.access.ProgramCall;
 import com.ibm.as400.access.ProgramParameter;
-import com.ibm.as400.access.ServiceProgramCall;
 
-public class DcmApiCaller implements Closeable {
+public class DcmApiCaller implements DcmBackend {
+
+    private static final String QYCDCUSG = "/QSYS.LIB/QICSS.LIB/QYCDCUSG.SRVPGM";
+    //@formatter:off
+    private static final DcmCallDescriptor QYCD_ADD_CA_CERT_TRUST = DcmCallDescriptor.forProcedure(QYCDCUSG, "QycdAddCACertTrust", 6)
+            .constant(2, CERT_ID_TYPE_LABEL);
+    private static final DcmCallDescriptor QYCD_REMOVE_CERT_USAGE = DcmCallDescriptor.forProcedure(QYCDCUSG, "QycdRemoveCertUsage", 7);
+    private static final DcmCallDescriptor QYCD_RETRIEVE_CERT_USAGE_INFO = DcmCallDescriptor.forProcedure(QYCDCUSG, "QycdRetrieveCertUsageInfo", 7)
+            .byReference(0)
+            .constant(2, text("CUSG0100"))
+            .constant(5, text("SLTC0100"));
+    private static final DcmCallDescriptor QYCD_UPDATE_CERT_USAGE = DcmCallDescriptor.forProcedure(QYCDCUSG, "QycdUpdateCertUsage", 8)
+            .byReference(0)
+            .constant(4, CERT_ID_TYPE_LABEL);
+    private static final DcmCallDescriptor QYCDRNWC = DcmCallDescriptor.forProgram("/QSYS.LIB/QYCDRNWC.PGM", 4)
+            .constant(2, text("RNWC0300"));
+    private static final DcmCallDescriptor QYKMEXPK = DcmCallDescriptor.forProgram("/QSYS.LIB/QYKMEXPK.PGM", 14)
+            .constant(2, FORMAT_OBJN0100)
+            .constant(5, CCSID_1208)
+            .constant(8, FORMAT_OBJN0100)
+            .constant(9, VERSION_PKCS12V3)
+            .constant(12, CCSID_1208);
+    private static final DcmCallDescriptor QYKMIMPK = DcmCallDescriptor.forProgram("/QSYS.LIB/QYKMIMPK.PGM", 14)
+            .constant(2, FORMAT_OBJN0100)
+            .constant(5, CCSID_1208)
+            .constant(8, FORMAT_OBJN0100)
+            .constant(9, VERSION_PKCS12V3)
+            .constant(12, CCSID_1208);
+    //@formatter:on
 
     private final AS400 m_conn;
+    private final boolean m_isRemote;
+    private final DcmSession.Lease m_lease;
 
-    public DcmApiCaller(final boolean _isYesMode) throws IOException {
-        final String osName = System.getProperty("os.name", "");
-        if (osName.equalsIgnoreCase("OS/400")) { // Running on IBM i, using JV1
-            m_conn = new AS400("localhost", "*CURRENT", "*CURRENT");
-        } else if (osName.equalsIgnoreCase("OS400")) { // Running on i, OpenJDK
-            if (_isYesMode) {
-                throw new IOException("IBM i password not specified. Run in interactive mode or with JV1 Java for this to work.");
-            }
-            m_conn = new AS400("localhost", System.getProperty("user.name", "*CURRENT"), ConsoleQuestionAsker.get().askUserOrThrow("Enter IBM i password: "));
-        } else {
-            if (_isYesMode) {
-                throw new IOException("Not allowed with '-y'");
-            }
-            m_conn = new AS400(ConsoleQuestionAsker.get().askUserOrThrow("Enter IBM i system name: "), ConsoleQuestionAsker.get().askUserOrThrow("Enter IBM i user name: "), ConsoleQuestionAsker.get().askUserForPwd("Enter IBM i password: "));
-        }
+    public DcmApiCaller(final boolean _isYesMode) throws IOException, AS400SecurityException, InterruptedException {
+        m_lease = DcmSession.get(_isYesMode).lease();
+        m_conn = m_lease.getConnection();
+        m_isRemote = DcmSession.isRemote();
     }
 
+    @Override
     public void callQycdAddCACertTrust(final AppLogger _logger, final String _dcmStore, final String _dcmStorePw, final String _appId, final String _alias) throws PropertyVetoException, AS400SecurityException, ErrorCompletingRequestException, IOException, InterruptedException, ObjectDoesNotExistException {
-        final ServiceProgramCall program = new ServiceProgramCall(m_conn);
-        // Initialize the name of the program to run.
-        final String programName = "/QSYS.LIB/QICSS.LIB/QYCDCUSG.SRVPGM";
-        final ProgramParameter[] parameterList = new ProgramParameter[6];
-        // 1 Application ID Input Char(*)
-        parameterList[0] = new ProgramParameter(new AS400Text(_appId.length()).toBytes(_appId));
-        // 2 Length of application ID Input Binary(4)
-        parameterList[1] = new ProgramParameter(new AS400Bin4().toBytes(_appId.length()));
-        // 3 Trusted CA certificate ID type Input Char(1)
-        parameterList[2] = new ProgramParameter(new AS400Text(1).toBytes("1"));
-        // 4 Trusted CA certificate ID Input Char(*)
-        parameterList[3] = new ProgramParameter(new AS400Text(_alias.length()).toBytes(_alias));
-        // 5 Length of trusted CA certificate ID Input Binary(4)
-        parameterList[4] = new ProgramParameter(new AS400Bin4().toBytes(_alias.length()));
-        // 6 Error code I/O Char(*)
         final ErrorCodeParameter ec = new ErrorCodeParameter(true, true);
-        parameterList[5] = ec;
-
-        program.setProgram(programName, parameterList);
-        program.setProcedureName("QycdAddCACertTrust");
+        final ProgramCall program = QYCD_ADD_CA_CERT_TRUST.bind(m_conn, ec,
+                // 1 Application ID Input Char(*)
+                text(_appId),
+                // 2 Length of application ID Input Binary(4)
+                bin4(_appId.length()),
+                // 3 Trusted CA certificate ID type Input Char(1) (constant)
+                // 4 Trusted CA certificate ID Input Char(*)
+                text(_alias),
+                // 5 Length of trusted CA certificate ID Input Binary(4)
+                bin4(_alias.length()));
+        // 6 Error code I/O Char(*)
         // Run the program.
         runProgram(_logger, program, ec);
     }
 
+    @Override
     public void callQycdRemoveCertUsage(final AppLogger _logger, final String _dcmStore, final String _dcmStorePw, final String _appId, final String _alias) throws PropertyVetoException, AS400SecurityException, ErrorCompletingRequestException, IOException, InterruptedException, ObjectDoesNotExistException {
-        final ServiceProgramCall program = new ServiceProgramCall(m_conn);
-        // Initialize the name of the program to run.
-        final String programName = "/QSYS.LIB/QICSS.LIB/QYCDCUSG.SRVPGM";
-        final ProgramParameter[] parameterList = new ProgramParameter[7];
-        // 1 Application ID Input Char(*)
-        parameterList[0] = new ProgramParameter(new AS400Text(_appId.length()).toBytes(_appId));
-        // 2 Length of application ID Input Binary(4)
-        parameterList[1] = new ProgramParameter(new AS400Bin4().toBytes(_appId.length()));
-        // 3 Certificate store name Input Char(*)
-        parameterList[2] = new ProgramParameter(new AS400Text(_dcmStore.length()).toBytes(_dcmStore));
-        // 4 Length of certificate store name Input Binary(4)
-        parameterList[3] = new ProgramParameter(new AS400Bin4().toBytes(_dcmStore.length()));
-        // 5 Certificate ID Input Char(*)
-        parameterList[4] = new ProgramParameter(new AS400Text(_alias.length()).toBytes(_alias));
-        // 6 Length of certificate ID Input Binary(4)
-        parameterList[5] = new ProgramParameter(new AS400Bin4().toBytes(_alias.length()));
-        // 7 Error code I/O Char(*)
         final ErrorCodeParameter ec = new ErrorCodeParameter(true, true);
-        parameterList[6] = ec;
-
-        program.setProgram(programName, parameterList);
-        program.setProcedureName("QycdRemoveCertUsage");
+        final ProgramCall program = QYCD_REMOVE_CERT_USAGE.bind(m_conn, ec,
+                // 1 Application ID Input Char(*)
+                text(_appId),
+                // 2 Length of application ID Input Binary(4)
+                bin4(_appId.length()),
+                // 3 Certificate store name Input Char(*)
+                text(_dcmStore),
+                // 4 Length of certificate store name Input Binary(4)
+                bin4(_dcmStore.length()),
+                // 5 Certificate ID Input Char(*)
+                text(_alias),
+                // 6 Length of certificate ID Input Binary(4)
+                bin4(_alias.length()));
+        // 7 Error code I/O Char(*)
         // Run the program.
-        runProgram(_logger, program, ec);
+        try {
+            runProgram(_logger, program, ec);
+        } finally {
+            DcmCertUsageRegistry.get().invalidate(_appId);
+        }
     }
 
+    @Override
     public void callQycdRenewCertificate_RNWC0300(final AppLogger _logger, final String _file) throws PropertyVetoException, AS400SecurityException, ErrorCompletingRequestException, IOException, InterruptedException, ObjectDoesNotExistException {
-        final ProgramCall program = new ProgramCall(m_conn);
-        // Initialize the name of the program to run.
-        final String programName = "/QSYS.LIB/QYCDRNWC.PGM";
-        final String apiFormat = "RNWC0300";
+        try {
+            if (m_isRemote) {
+                final String remoteFile = IfsTransfer.upload(_logger, m_conn, new File(_file));
+                try {
+                    renewCertificate(_logger, remoteFile);
+                } finally {
+                    IfsTransfer.delete(_logger, m_conn, remoteFile);
+                }
+            } else {
+                renewCertificate(_logger, _file);
+            }
+        } finally {
+            // the renewed certificate could be in any store
+            DcmSnapshotCache.get().invalidateAll();
+        }
+    }
 
-        final AS400Structure arg0 = new AS400Structure(new AS400DataType[] {
+    private void renewCertificate(final AppLogger _logger, final String _file) throws PropertyVetoException, AS400SecurityException, ErrorCompletingRequestException, IOException, InterruptedException, ObjectDoesNotExistException {
+        //@formatter:off
+        final byte[] requestData = concat(
                 // 0 0 Binary (4) Offset to certificate path and file name
-                new AS400Bin4(),
+                bin4(8),
                 // 4 4 Binary (4) Length of certificate path and file name
-                new AS400Bin4(),
+                bin4(_file.length()),
                 // Char (*) Certificate path and file name
-                new AS400Text(_file.length()) }); // TODO
-
-        // Set up the parms
-        final ProgramParameter[] parameterList = new ProgramParameter[14];
-
-        // 1 Certificate request data Input Char(*)
-        parameterList[0] = new ProgramParameter(arg0.toBytes(new Object[] { 8, _file.length(), _file }));
-        // 2 Length of certificate request data Input Binary(4)
-        parameterList[1] = new ProgramParameter(new AS400Bin4().toBytes(arg0.getByteLength()));
-        // 3 Format name Input Char(8)
-        parameterList[2] = new ProgramParameter(new AS400Text(8).toBytes(apiFormat));
-        // 4 Error Code I/O Char(*)
+                text(_file));
+        //@formatter:on
         final ErrorCodeParameter ec = new ErrorCodeParameter(true, true);
-        parameterList[3] = ec;
-
-        program.setProgram(programName, parameterList);
+        final ProgramCall program = QYCDRNWC.bind(m_conn, ec,
+                // 1 Certificate request data Input Char(*)
+                requestData,
+                // 2 Length of certificate request data Input Binary(4)
+                bin4(requestData.length));
+        // 3 Format name Input Char(8) (constant)
+        // 4 Error Code I/O Char(*)
         // Run the program.
         runProgram(_logger, program, ec);
     }
 
-    public void callQycdRetrieveCertUsageInfo(final AppLogger _logger, final String _selectionCriteria) {
-        // TODO
+    @Override
+    public CertUsage callQycdRetrieveCertUsageInfo(final AppLogger _logger, final String _appId) throws PropertyVetoException, AS400SecurityException, ErrorCompletingRequestException, IOException, InterruptedException, ObjectDoesNotExistException {
+        int receiverLen = 1024;
+        while (true) {
+            final ErrorCodeParameter ec = new ErrorCodeParameter(true, true);
+            final ProgramParameter receiver = new ProgramParameter(receiverLen);
+            final ProgramCall program = QYCD_RETRIEVE_CERT_USAGE_INFO.bind(m_conn, ec,
+                    // 1 Receiver variable Output Char(*)
+                    receiver,
+                    // 2 Length of receiver variable Input Binary(4)
+                    bin4(receiverLen),
+                    // 3 Format name Input Char(8) (constant)
+                    // 4 Selection criteria Input Char(*)
+                    text(_appId),
+                    // 5 Length of selection criteria Input Binary(4)
+                    bin4(_appId.length()));
+            // 6 Format of selection criteria Input Char(8) (constant)
+            // 7 Error code I/O Char(*)
+            // Run the program.
+            runProgram(_logger, program, ec);
+
+            final byte[] data = receiver.getOutputData();
+            // 0 0 Binary(4) Bytes returned
+            // 4 4 Binary(4) Bytes available
+            final int bytesAvailable = fromBin4(data, 4);
+            if (bytesAvailable > receiverLen) {
+                receiverLen = bytesAvailable;
+                continue;
+            }
+            // 8 8 Binary(4) Offset to certificate store name
+            // 12 C Binary(4) Length of certificate store name
+            // 16 10 Binary(4) Offset to certificate ID
+            // 20 14 Binary(4) Length of certificate ID
+            final int bytesReturned = Math.min(fromBin4(data, 0), data.length);
+            if (24 > bytesReturned) {
+                throw new IOException("Unexpected CUSG0100 receiver: " + bytesReturned + " bytes returned");
+            }
+            final String certStore = fromTextWithin(data, bytesReturned, fromBin4(data, 8), fromBin4(data, 12));
+            final String certId = fromTextWithin(data, bytesReturned, fromBin4(data, 16), fromBin4(data, 20));
+            if (certStore.isEmpty() || certId.isEmpty()) {
+                return null;
+            }
+            return new CertUsage(_appId, certStore, certId);
+        }
+    }
 
+    /**
+     * Decodes a field from a receiver variable, refusing an offset or length that points outside of the bytes returned
+     * rather than decoding whatever happens to be there.
+     */
+    private static String fromTextWithin(final byte[] _data, final int _bytesReturned, final int _offset, final int _length) throws IOException {
+        if (0 > _offset || 0 > _length || _bytesReturned < _offset + (long) _length) {
+            throw new IOException("Unexpected receiver layout: field at offset " + _offset + " with length " + _length + " is outside of the " + _bytesReturned + " bytes returned");
+        }
+        return fromText(_data, _offset, _length);
     }
 
+    @Override
     public void callQycdUpdateCertUsage(final AppLogger _logger, final String _appId, final String _certStoreName, final String _certId) throws PropertyVetoException, AS400SecurityException, ErrorCompletingRequestException, IOException, InterruptedException, ObjectDoesNotExistException {
-        final ServiceProgramCall program = new ServiceProgramCall(m_conn);
-        final String programName = "/QSYS.LIB/QICSS.LIB/QYCDCUSG.SRVPGM";
-        final ProgramParameter[] parameterList = new ProgramParameter[8];
-        // 1 Application ID Output Char(*)
-        parameterList[0] = new ProgramParameter(new AS400Text(_appId.length()).toBytes(_appId));
-        parameterList[0].setParameterType(ProgramParameter.PASS_BY_REFERENCE);
-        // 2 Length of application ID Input Binary(4)
-        parameterList[1] = new ProgramParameter(new AS400Bin4().toBytes(_appId.length()));
-        // 3 Certificate store name Input Char(*)
-        parameterList[2] = new ProgramParameter(new AS400Text(_certStoreName.length()).toBytes(_certStoreName));
-        // 4 Length of certificate store name Input Binary(4)
-        parameterList[3] = new ProgramParameter(new AS400Bin4().toBytes(_certStoreName.length()));
-        // 5 Certificate ID type Input Char(*)
-        parameterList[4] = new ProgramParameter(new AS400Text(1).toBytes("1"));
-        // 6 Certificate ID Input Char(*)
-        parameterList[5] = new ProgramParameter(new AS400Text(_certId.length()).toBytes(_certId));
-        // 7 Length of certificate ID Input Binary(4)
-        parameterList[6] = new ProgramParameter(new AS400Bin4().toBytes(_certId.length()));
-        // 8 Error code I/O Char(*)
         final ErrorCodeParameter ec = new ErrorCodeParameter(true, true);
-        parameterList[7] = ec;
-
-        program.setProgram(programName, parameterList);
-        program.setProcedureName("QycdUpdateCertUsage");
+        final ProgramCall program = QYCD_UPDATE_CERT_USAGE.bind(m_conn, ec,
+                // 1 Application ID Output Char(*)
+                text(_appId),
+                // 2 Length of application ID Input Binary(4)
+                bin4(_appId.length()),
+                // 3 Certificate store name Input Char(*)
+                text(_certStoreName),
+                // 4 Length of certificate store name Input Binary(4)
+                bin4(_certStoreName.length()),
+                // 5 Certificate ID type Input Char(*) (constant)
+                // 6 Certificate ID Input Char(*)
+                text(_certId),
+                // 7 Length of certificate ID Input Binary(4)
+                bin4(_certId.length()));
+        // 8 Error code I/O Char(*)
         // Run the program.
-        runProgram(_logger, program, ec);
+        try {
+            runProgram(_logger, program, ec);
+        } finally {
+            DcmCertUsageRegistry.get().invalidate(_appId);
+        }
     }
 
+    @Override
     public void callQykmExportKeyStore(final AppLogger _logger, final String _dcmStore, final String _dcmStorePw, final String _exportFile, final String _exportFilePw) throws PropertyVetoException, AS400SecurityException, ErrorCompletingRequestException, IOException, InterruptedException, ObjectDoesNotExistException {
-        final ProgramCall program = new ProgramCall(m_conn);
-        // Initialize the name of the program to run.
-        final String programName = "/QSYS.LIB/QYKMEXPK.PGM";
-        final ProgramParameter[] parameterList = new ProgramParameter[14];
-        // 1 Certificate store path and file Name Input Char(*)
-        parameterList[0] = new ProgramParameter(new AS400Text(_dcmStore.length()).toBytes(_dcmStore));
-        // 2 Length of certificate store path and file Name Input Binary(4)
-        parameterList[1] = new ProgramParameter(new AS400Bin4().toBytes(_dcmStore.length()));
-        // 3 Format of certificate store path and file Name Input Char(8)
-        parameterList[2] = new ProgramParameter(new AS400Text(8).toBytes("OBJN0100"));
-        // 4 Certificate store password Input Char(*)
-        parameterList[3] = new ProgramParameter(new AS400Text(_dcmStorePw.length(), 1208).toBytes(_dcmStorePw));
-        // 5 Length of certificate store password Input Binary(4)
-        parameterList[4] = new ProgramParameter(new AS400Bin4().toBytes(_dcmStorePw.length()));
-        // 6 CCSID of certificate store password Input Binary(4)
-        parameterList[5] = new ProgramParameter(new AS400Bin4().toBytes(1208));
-        // 7 Export path and file name Input Char(*)
-        parameterList[6] = new ProgramParameter(new AS400Text(_exportFile.length()).toBytes(_exportFile));
-        // 8 Length of export path and file name Input Binary(4)
-        parameterList[7] = new ProgramParameter(new AS400Bin4().toBytes(_exportFile.length()));
-        // 9 Format of import path and file name Input Char(8)
-        parameterList[8] = new ProgramParameter(new AS400Text(8).toBytes("OBJN0100"));
-        // 10 Version of export file Input Char(10)
-        parameterList[9] = new ProgramParameter(new AS400Text(10).toBytes("*PKCS12V3 "));
-        // 11 Export file password Input Char(*)
-        parameterList[10] = new ProgramParameter(new AS400Text(_exportFilePw.length(), 1208).toBytes(_exportFilePw));
-        // 12 Length of export file password Input Binary(4)
-        parameterList[11] = new ProgramParameter(new AS400Bin4().toBytes(_exportFilePw.length()));
-        // 13 CCSID of export file password Input Binary(4)
-        parameterList[12] = new ProgramParameter(new AS400Bin4().toBytes(1208));
-        // 14 Error code I/O Char(*)
-        final ErrorCodeParameter ec = new ErrorCodeParameter(true, true);
-        parameterList[13] = ec;
+        if (m_isRemote) {
+            final String remoteFile = IfsTransfer.newRemoteTempPath();
+            try {
+                exportKeyStore(_logger, _dcmStore, _dcmStorePw, remoteFile, _exportFilePw);
+                IfsTransfer.download(_logger, m_conn, remoteFile, new File(_exportFile));
+            } finally {
+                IfsTransfer.delete(_logger, m_conn, remoteFile);
+            }
+        } else {
+            exportKeyStore(_logger, _dcmStore, _dcmStorePw, _exportFile, _exportFilePw);
+        }
+    }
 
-        program.setProgram(programName, parameterList);
+    private void exportKeyStore(final AppLogger _logger, final String _dcmStore, final String _dcmStorePw, final String _exportFile, final String _exportFilePw) throws PropertyVetoException, AS400SecurityException, ErrorCompletingRequestException, IOException, InterruptedException, ObjectDoesNotExistException {
+        final ErrorCodeParameter ec = new ErrorCodeParameter(true, true);
+        final ProgramCall program = QYKMEXPK.bind(m_conn, ec,
+                // 1 Certificate store path and file Name Input Char(*)
+                text(_dcmStore),
+                // 2 Length of certificate store path and file Name Input Binary(4)
+                bin4(_dcmStore.length()),
+                // 3 Format of certificate store path and file Name Input Char(8) (constant)
+                // 4 Certificate store password Input Char(*)
+                text1208(_dcmStorePw),
+                // 5 Length of certificate store password Input Binary(4)
+                bin4(_dcmStorePw.length()),
+                // 6 CCSID of certificate store password Input Binary(4) (constant)
+                // 7 Export path and file name Input Char(*)
+                text(_exportFile),
+                // 8 Length of export path and file name Input Binary(4)
+                bin4(_exportFile.length()),
+                // 9 Format of import path and file name Input Char(8) (constant)
+                // 10 Version of export file Input Char(10) (constant)
+                // 11 Export file password Input Char(*)
+                text1208(_exportFilePw),
+                // 12 Length of export file password Input Binary(4)
+                bin4(_exportFilePw.length()));
+        // 13 CCSID of export file password Input Binary(4) (constant)
+        // 14 Error code I/O Char(*)
         // Run the program.
         runProgram(_logger, program, ec);
     }
 
     // QykmImportKeyStore
+    @Override
     public void callQykmImportKeyStore(final AppLogger _logger, final String _dcmStore, final String _dcmStorePw, final String _dcmImportFile, final String _importFilePw)
             throws PropertyVetoException, AS400SecurityException, ErrorCompletingRequestException, IOException, InterruptedException, ObjectDoesNotExistException {
-        final ProgramCall program = new ProgramCall(m_conn);
-        // Initialize the name of the program to run.
-        final String programName = "/QSYS.LIB/QYKMIMPK.PGM";
-        // Set up the parms
-        final ProgramParameter[] parameterList = new ProgramParameter[14];
-        // 1 Certificate store path and file Name Input Char(*)
-        parameterList[0] = new ProgramParameter(new AS400Text(_dcmStore.length()).toBytes(_dcmStore));
-        // 2 Length of certificate store path and file Name Input Binary(4)
-        parameterList[1] = new ProgramParameter(new AS400Bin4().toBytes(_dcmStore.length()));
-        // 3 Format of certificate store path and file Name Input Char(8)
-        parameterList[2] = new ProgramParameter(new AS400Text(8).toBytes("OBJN0100"));
-        // 4 Certificate store password Input Char(*)
-        parameterList[3] = new ProgramParameter(new AS400Text(_dcmStorePw.length(), 1208).toBytes(_dcmStorePw));
-        // 5 Length of certificate store password Input Binary(4)
-        parameterList[4] = new ProgramParameter(new AS400Bin4().toBytes(_dcmStorePw.length()));
-        // 6 CCSID of certificate store password Input Binary(4)
-        parameterList[5] = new ProgramParameter(new AS400Bin4().toBytes(1208));
-        // 7 Import path and file name Input Char(*)
-        parameterList[6] = new ProgramParameter(new AS400Text(_dcmImportFile.length()).toBytes(_dcmImportFile));
-        // 8 Length of import path and file name Input Binary(4)
-        parameterList[7] = new ProgramParameter(new AS400Bin4().toBytes(_dcmImportFile.length()));
-        // 9 Format of import path and file name Input Char(8)
-        parameterList[8] = new ProgramParameter(new AS400Text(8).toBytes("OBJN0100"));
-        // 10 Version of import file Input Char(10)
-        parameterList[9] = new ProgramParameter(new AS400Text(10).toBytes("*PKCS12V3 "));
-        // 11 Import file password Input Char(*)
-        parameterList[10] = new ProgramParameter(new AS400Text(_importFilePw.length(), 1208).toBytes(_importFilePw));
-        // 12 Length of import file password Input Binary(4)
-        parameterList[11] = new ProgramParameter(new AS400Bin4().toBytes(_importFilePw.length()));
-        // 13 CCSID of import file password Input Binary(4)
-        parameterList[12] = new ProgramParameter(new AS400Bin4().toBytes(1208));
-        // 14 Error code I/O Char(*)
-        final ErrorCodeParameter ec = new ErrorCodeParameter(true, true);
-        parameterList[13] = ec;
+        try {
+            if (m_isRemote) {
+                final String remoteFile = IfsTransfer.upload(_logger, m_conn, new File(_dcmImportFile));
+                try {
+                    importKeyStore(_logger, _dcmStore, _dcmStorePw, remoteFile, _importFilePw);
+                } finally {
+                    IfsTransfer.delete(_logger, m_conn, remoteFile);
+                }
+            } else {
+                importKeyStore(_logger, _dcmStore, _dcmStorePw, _dcmImportFile, _importFilePw);
+            }
+        } finally {
+            DcmSnapshotCache.get().invalidate(_dcmStore);
+        }
+    }
 
-        program.setProgram(programName, parameterList);
+    private void importKeyStore(final AppLogger _logger, final String _dcmStore, final String _dcmStorePw, final String _dcmImportFile, final String _importFilePw) throws PropertyVetoException, AS400SecurityException, ErrorCompletingRequestException, IOException, InterruptedException, ObjectDoesNotExistException {
+        final ErrorCodeParameter ec = new ErrorCodeParameter(true, true);
+        final ProgramCall program = QYKMIMPK.bind(m_conn, ec,
+                // 1 Certificate store path and file Name Input Char(*)
+                text(_dcmStore),
+                // 2 Length of certificate store path and file Name Input Binary(4)
+                bin4(_dcmStore.length()),
+                // 3 Format of certificate store path and file Name Input Char(8) (constant)
+                // 4 Certificate store password Input Char(*)
+                text1208(_dcmStorePw),
+                // 5 Length of certificate store password Input Binary(4)
+                bin4(_dcmStorePw.length()),
+                // 6 CCSID of certificate store password Input Binary(4) (constant)
+                // 7 Import path and file name Input Char(*)
+                text(_dcmImportFile),
+                // 8 Length of import path and file name Input Binary(4)
+                bin4(_dcmImportFile.length()),
+                // 9 Format of import path and file name Input Char(8) (constant)
+                // 10 Version of import file Input Char(10) (constant)
+                // 11 Import file password Input Char(*)
+                text1208(_importFilePw),
+                // 12 Length of import file password Input Binary(4)
+                bin4(_importFilePw.length()));
+        // 13 CCSID of import file password Input Binary(4) (constant)
+        // 14 Error code I/O Char(*)
         // Run the program.
         runProgram(_logger, program, ec);
     }
 
     @Override
     public void close() throws IOException {
-        m_conn.disconnectAllServices();
+        m_lease.close();
     }
 
     private void runProgram(final AppLogger _logger, final ProgramCall _program, final ErrorCodeParameter _ec) throws AS400SecurityException, ErrorCompletingRequestException, IOException, InterruptedException, ObjectDoesNotExistException {
@@ -0,0 +1,171 @@
+package com.github.ibmioss.dcmtools.utils;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.TreeMap;
+
+import com.github.theprez.jcmdutils.StringUtils;
+
+/**
+ * Per-API latency histograms, call counts and error counts for everything this JVM sends to DCM, including
+ * connection sign-on. When the system property <tt>dcmtools.stats.file</tt> is set, the statistics are written to that
+ * file when the JVM exits: as JSON if the file name ends in <tt>.json</tt>, otherwise in the Prometheus text format.
+ */
+public class DcmApiStats {
+
+    public static class LatencyHistogram {
+        private final long[] m_bucketCounts = new long[BUCKET_BOUNDS_MS.length + 1];
+        private long m_count = 0;
+        private long m_errors = 0;
+        private long m_maxNanos = 0;
+        private long m_minNanos = Long.MAX_VALUE;
+        private long m_sumNanos = 0;
+
+        public synchronized long getCount() {
+            return m_count;
+        }
+
+        public synchronized long getErrors() {
+            return m_errors;
+        }
+
+        synchronized void record(final long _nanos, final boolean _isSuccess) {
+            m_count++;
+            if (!_isSuccess) {
+                m_errors++;
+            }
+            m_sumNanos += _nanos;
+            m_minNanos = Math.min(m_minNanos, _nanos);
+            m_maxNanos = Math.max(m_maxNanos, _nanos);
+            final double millis = _nanos / 1e6;
+            int bucket = 0;
+            while (bucket < BUCKET_BOUNDS_MS.length && millis > BUCKET_BOUNDS_MS[bucket]) {
+                bucket++;
+            }
+            m_bucketCounts[bucket]++;
+        }
+    }
+
+    private static final double[] BUCKET_BOUNDS_MS = new double[] { 1, 2.5, 5, 10, 25, 50, 100, 250, 500, 1000, 2500, 5000, 10000, 30000, 60000 };
+    public static final String PROP_STATS_FILE = "dcmtools.stats.file";
+    private static final DcmApiStats s_instance = new DcmApiStats();
+    static {
+        if (StringUtils.isNonEmpty(System.getProperty(PROP_STATS_FILE))) {
+            Runtime.getRuntime().addShutdownHook(new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        s_instance.writeTo(new File(System.getProperty(PROP_STATS_FILE)));
+                    } catch (final IOException e) {
+                        System.err.println("Unable to write DCM API statistics: " + e.getLocalizedMessage());
+                    }
+                }
+            });
+        }
+    }
+
+    public static DcmApiStats get() {
+        return s_instance;
+    }
+
+    private static String millis(final long _nanos) {
+        return String.format(Locale.US, "%.3f", _nanos / 1e6);
+    }
+
+    private static String seconds(final long _nanos) {
+        return String.format(Locale.US, "%.6f", _nanos / 1e9);
+    }
+
+    private final Map<String, LatencyHistogram> m_histograms = new TreeMap<String, LatencyHistogram>();
+
+    private DcmApiStats() {
+    }
+
+    public synchronized LatencyHistogram getHistogram(final String _api) {
+        LatencyHistogram ret = m_histograms.get(_api);
+        if (null == ret) {
+            ret = new LatencyHistogram();
+            m_histograms.put(_api, ret);
+        }
+        return ret;
+    }
+
+    /**
+     * Records one call that started at <tt>_startNanos</tt> (as returned by {@link System#nanoTime()}) and has just
+     * finished.
+     */
+    public void record(final String _api, final long _startNanos, final boolean _isSuccess) {
+        getHistogram(_api).record(System.nanoTime() - _startNanos, _isSuccess);
+    }
+
+    private synchronized Map<String, LatencyHistogram> snapshot() {
+        return new TreeMap<String, LatencyHistogram>(m_histograms);
+    }
+
+    public String toJson() {
+        final StringBuilder ret = new StringBuilder("{\n  \"apis\": {");
+        boolean isFirst = true;
+        for (final Entry<String, LatencyHistogram> entry : snapshot().entrySet()) {
+            final LatencyHistogram h = entry.getValue();
+            synchronized (h) {
+                ret.append(isFirst ? "\n" : ",\n");
+                isFirst = false;
+                ret.append("    \"").append(entry.getKey()).append("\": {");
+                ret.append("\"count\": ").append(h.m_count);
+                ret.append(", \"errors\": ").append(h.m_errors);
+                ret.append(", \"sum_ms\": ").append(millis(h.m_sumNanos));
+                ret.append(", \"min_ms\": ").append(millis(0 == h.m_count ? 0 : h.m_minNanos));
+                ret.append(", \"max_ms\": ").append(millis(h.m_maxNanos));
+                ret.append(", \"buckets\": [");
+                for (int i = 0; i < h.m_bucketCounts.length; ++i) {
+                    ret.append(0 == i ? "" : ", ");
+                    ret.append("{\"le_ms\": ").append(i < BUCKET_BOUNDS_MS.length ? String.valueOf(BUCKET_BOUNDS_MS[i]) : "\"+Inf\"");
+                    ret.append(", \"count\": ").append(h.m_bucketCounts[i]).append("}");
+                }
+                ret.append("]}");
+            }
+        }
+        ret.append("\n  }\n}\n");
+        return ret.toString();
+    }
+
+    public String toPrometheusText() {
+        final Map<String, LatencyHistogram> histograms = snapshot();
+        final StringBuilder ret = new StringBuilder();
+        ret.append("# HELP dcmtools_api_call_seconds Latency of DCM API calls and connection sign-on\n");
+        ret.append("# TYPE dcmtools_api_call_seconds histogram\n");
+        for (final Entry<String, LatencyHistogram> entry : histograms.entrySet()) {
+            final String label = "api=\"" + entry.getKey() + "\"";
+            final LatencyHistogram h = entry.getValue();
+            synchronized (h) {
+                long cumulative = 0;
+                for (int i = 0; i < h.m_bucketCounts.length; ++i) {
+                    cumulative += h.m_bucketCounts[i];
+                    final String le = i < BUCKET_BOUNDS_MS.length ? String.format(Locale.US, "%s", BUCKET_BOUNDS_MS[i] / 1000) : "+Inf";
+                    ret.append("dcmtools_api_call_seconds_bucket{").append(label).append(",le=\"").append(le).append("\"} ").append(cumulative).append("\n");
+                }
+                ret.append("dcmtools_api_call_seconds_sum{").append(label).append("} ").append(seconds(h.m_sumNanos)).append("\n");
+                ret.append("dcmtools_api_call_seconds_count{").append(label).append("} ").append(h.m_count).append("\n");
+            }
+        }
+        ret.append("# HELP dcmtools_api_call_errors_total Number of failed DCM API calls and sign-on attempts\n");
+        ret.append("# TYPE dcmtools_api_call_errors_total counter\n");
+        for (final Entry<String, LatencyHistogram> entry : histograms.entrySet()) {
+            ret.append("dcmtools_api_call_errors_total{api=\"").append(entry.getKey()).append("\"} ").append(entry.getValue().getErrors()).append("\n");
+        }
+        return ret.toString();
+    }
+
+    public void writeTo(final File _file) throws IOException {
+        final String contents = _file.getName().toLowerCase().endsWith(".json") ? toJson() : toPrometheusText();
+        try (BufferedWriter bw = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(_file), "UTF-8"))) {
+            bw.write(contents);
+        }
+    }
+}
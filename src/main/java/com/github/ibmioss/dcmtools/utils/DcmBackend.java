@@ -0,0 +1,36 @@
+package com.github.ibmioss.dcmtools.utils;
+
+import java.beans.PropertyVetoException;
+import java.io.Closeable;
+import java.io.IOException;
+
+import com.github.ibmioss.dcmtools.utils.DcmCertUsageRegistry.CertUsage;
+import com.github.theprez.jcmdutils.AppLogger;
+import com.ibm.as400.access.AS400SecurityException;
+import com.ibm.as400.access.ErrorCompletingRequestException;
+import com.ibm.as400.access.ObjectDoesNotExistException;
+
+/**
+ * The set of DCM operations the tools rely on. {@link DcmApiCaller} implements these by calling the IBM i APIs, and
+ * {@link DcmEmulatorBackend} implements them against local PKCS#12 files so the rest of the tooling can be exercised
+ * off-box. Use {@link DcmBackendFactory} to get an instance.
+ */
+public interface DcmBackend extends Closeable {
+
+    public void callQycdAddCACertTrust(final AppLogger _logger, final String _dcmStore, final String _dcmStorePw, final String _appId, final String _alias) throws PropertyVetoException, AS400SecurityException, ErrorCompletingRequestException, IOException, InterruptedException, ObjectDoesNotExistException;
+
+    public void callQycdRemoveCertUsage(final AppLogger _logger, final String _dcmStore, final String _dcmStorePw, final String _appId, final String _alias) throws PropertyVetoException, AS400SecurityException, ErrorCompletingRequestException, IOException, InterruptedException, ObjectDoesNotExistException;
+
+    public void callQycdRenewCertificate_RNWC0300(final AppLogger _logger, final String _file) throws PropertyVetoException, AS400SecurityException, ErrorCompletingRequestException, IOException, InterruptedException, ObjectDoesNotExistException;
+
+    /**
+     * Returns the certificate assigned to the given application, or <tt>null</tt> if it has none.
+     */
+    public CertUsage callQycdRetrieveCertUsageInfo(final AppLogger _logger, final String _appId) throws PropertyVetoException, AS400SecurityException, ErrorCompletingRequestException, IOException, InterruptedException, ObjectDoesNotExistException;
+
+    public void callQycdUpdateCertUsage(final AppLogger _logger, final String _appId, final String _certStoreName, final String _certId) throws PropertyVetoException, AS400SecurityException, ErrorCompletingRequestException, IOException, InterruptedException, ObjectDoesNotExistException;
+
+    public void callQykmExportKeyStore(final AppLogger _logger, final String _dcmStore, final String _dcmStorePw, final String _exportFile, final String _exportFilePw) throws PropertyVetoException, AS400SecurityException, ErrorCompletingRequestException, IOException, InterruptedException, ObjectDoesNotExistException;
+
+    public void callQykmImportKeyStore(final AppLogger _logger, final String _dcmStore, final String _dcmStorePw, final String _dcmImportFile, final String _importFilePw) throws PropertyVetoException, AS400SecurityException, ErrorCompletingRequestException, IOException, InterruptedException, ObjectDoesNotExistException;
+}
@@ -0,0 +1,71 @@
+package com.github.ibmioss.dcmtools.utils;
+
+import java.io.File;
+import java.io.IOException;
+
+import com.github.theprez.jcmdutils.AppLogger;
+import com.ibm.as400.access.AS400SecurityException;
+
+public class DcmBackendFactory {
+
+    public static final String PROP_BACKEND = "dcmtools.backend";
+
+    /**
+     * Returns the file holding the given certificate store, if that file is accessible from this JVM, or <tt>null</tt>
+     * if the store is on a remote system.
+     */
+    public static File getLocalStoreFile(final String _dcmStore) {
+        if (isEmulated()) {
+            return new DcmEmulatorBackend().storeFile(_dcmStore);
+        }
+        return DcmSession.isRemote() ? null : new File(_dcmStore);
+    }
+
+    /**
+     * Returns the name of the remote system holding DCM, or <tt>null</tt> if DCM is on the system running this JVM (or
+     * emulated). Asks for the system name if it has not been given yet.
+     */
+    public static String getRemoteSystemName(final boolean _isYesMode) throws IOException {
+        if (isEmulated() || !DcmSession.isRemote()) {
+            return null;
+        }
+        return DcmSession.get(_isYesMode).getSystemName();
+    }
+
+    public static boolean isEmulated() {
+        return "emulator".equalsIgnoreCase(System.getProperty(PROP_BACKEND, "").trim());
+    }
+
+    /**
+     * Starts connecting to DCM in the background, so the sign-on overlaps with whatever local work the command does
+     * first. Any prompting for credentials happens on the calling thread.
+     */
+    public static void warmUp(final AppLogger _logger, final boolean _isYesMode) {
+        if (isEmulated()) {
+            return;
+        }
+        try {
+            DcmSession.get(_isYesMode).warmUp();
+        } catch (final IOException e) {
+            // will be reported when the connection is actually needed
+            _logger.println_verbose("Not connecting in advance: " + e.getLocalizedMessage());
+        }
+    }
+
+    /**
+     * Makes sure that the given number of backends can be open at once without waiting for each other.
+     */
+    public static void ensureConcurrency(final boolean _isYesMode, final int _numBackends) throws IOException {
+        if (isEmulated()) {
+            return;
+        }
+        DcmSession.get(_isYesMode).ensurePoolSize(_numBackends);
+    }
+
+    public static DcmBackend open(final boolean _isYesMode) throws IOException, AS400SecurityException, InterruptedException {
+        if (isEmulated()) {
+            return new InstrumentedDcmBackend(new DcmEmulatorBackend());
+        }
+        return new InstrumentedDcmBackend(new DcmApiCaller(_isYesMode));
+    }
+}
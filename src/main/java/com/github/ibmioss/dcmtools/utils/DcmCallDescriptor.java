@@ -0,0 +1,151 @@
+package com.github.ibmioss.dcmtools.utils;
+
+import java.beans.PropertyVetoException;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.ibm.as400.access.AS400;
+import com.ibm.as400.access.AS400Bin4;
+import com.ibm.as400.access.AS400Text;
+import com.ibm.as400.access.ErrorCodeParameter;
+import com.ibm.as400.access.ProgramCall;
+import com.ibm.as400.access.ProgramParameter;
+import com.ibm.as400.access.ServiceProgramCall;
+
+/**
+ * Describes the parameter list of a single DCM API. The converters, and the encoded bytes of parameters that never
+ * change (formats, file versions, CCSIDs), are prepared once, so that each invocation only encodes its variable
+ * fields. The error code is always the last parameter and is supplied by the descriptor.
+ */
+public class DcmCallDescriptor {
+
+    private static final AS400Bin4 s_bin4 = new AS400Bin4();
+    private static final ConcurrentHashMap<Long, AS400Text> s_textConverters = new ConcurrentHashMap<Long, AS400Text>();
+
+    public static final byte[] CCSID_1208 = bin4(1208);
+    public static final byte[] CERT_ID_TYPE_LABEL = text("1");
+    public static final byte[] FORMAT_OBJN0100 = text("OBJN0100");
+    public static final byte[] VERSION_PKCS12V3 = text("*PKCS12V3 ");
+
+    public static byte[] bin4(final int _value) {
+        return s_bin4.toBytes(_value);
+    }
+
+    public static byte[] concat(final byte[]... _parts) {
+        int len = 0;
+        for (final byte[] part : _parts) {
+            len += part.length;
+        }
+        final byte[] ret = new byte[len];
+        int offset = 0;
+        for (final byte[] part : _parts) {
+            System.arraycopy(part, 0, ret, offset, part.length);
+            offset += part.length;
+        }
+        return ret;
+    }
+
+    public static int fromBin4(final byte[] _data, final int _offset) {
+        return s_bin4.toInt(_data, _offset);
+    }
+
+    public static String fromText(final byte[] _data, final int _offset, final int _length) {
+        if (0 >= _length) {
+            return "";
+        }
+        return ((String) getTextConverter(_length, -1).toObject(_data, _offset)).trim();
+    }
+
+    public static DcmCallDescriptor forProgram(final String _programPath, final int _numParms) {
+        return new DcmCallDescriptor(_programPath, null, _numParms);
+    }
+
+    public static DcmCallDescriptor forProcedure(final String _serviceProgramPath, final String _procedureName, final int _numParms) {
+        return new DcmCallDescriptor(_serviceProgramPath, _procedureName, _numParms);
+    }
+
+    private static AS400Text getTextConverter(final int _length, final int _ccsid) {
+        final Long key = (((long) _ccsid) << 32) | _length;
+        AS400Text ret = s_textConverters.get(key);
+        if (null == ret) {
+            ret = -1 == _ccsid ? new AS400Text(_length) : new AS400Text(_length, _ccsid);
+            final AS400Text existing = s_textConverters.putIfAbsent(key, ret);
+            if (null != existing) {
+                ret = existing;
+            }
+        }
+        return ret;
+    }
+
+    public static byte[] text(final String _value) {
+        return getTextConverter(_value.length(), -1).toBytes(_value);
+    }
+
+    public static byte[] text1208(final String _value) {
+        return getTextConverter(_value.length(), 1208).toBytes(_value);
+    }
+
+    private final byte[][] m_constants;
+    private final boolean[] m_isByReference;
+    private final String m_name;
+    private final String m_procedureName;
+    private final String m_programPath;
+
+    private DcmCallDescriptor(final String _programPath, final String _procedureName, final int _numParms) {
+        m_programPath = _programPath;
+        m_procedureName = _procedureName;
+        m_constants = new byte[_numParms][];
+        m_isByReference = new boolean[_numParms];
+        m_name = null == _procedureName ? _programPath.replaceAll(".*/", "").replaceAll("\\..*", "") : _procedureName;
+    }
+
+    /**
+     * Creates a ready-to-run call on the given connection. The values are the variable parameters, in order, skipping
+     * over any parameters that were declared constant and the trailing error code. Each value is either the encoded
+     * bytes of an input parameter, or a {@link ProgramParameter} (for instance, to receive output).
+     */
+    public ProgramCall bind(final AS400 _conn, final ErrorCodeParameter _ec, final Object... _variableValues) throws PropertyVetoException {
+        final ProgramParameter[] parameterList = new ProgramParameter[m_constants.length];
+        int valueIdx = 0;
+        for (int i = 0; i < parameterList.length - 1; ++i) {
+            if (null != m_constants[i]) {
+                parameterList[i] = new ProgramParameter(m_constants[i]);
+            } else {
+                final Object value = _variableValues[valueIdx++];
+                parameterList[i] = value instanceof ProgramParameter ? (ProgramParameter) value : new ProgramParameter((byte[]) value);
+            }
+            if (m_isByReference[i]) {
+                parameterList[i].setParameterType(ProgramParameter.PASS_BY_REFERENCE);
+            }
+        }
+        if (valueIdx != _variableValues.length) {
+            throw new IllegalArgumentException("Wrong number of parameters for " + m_name);
+        }
+        parameterList[parameterList.length - 1] = _ec;
+
+        final ProgramCall program;
+        if (null == m_procedureName) {
+            program = new ProgramCall(_conn);
+            program.setProgram(m_programPath, parameterList);
+        } else {
+            final ServiceProgramCall srvPgm = new ServiceProgramCall(_conn);
+            srvPgm.setProgram(m_programPath, parameterList);
+            srvPgm.setProcedureName(m_procedureName);
+            program = srvPgm;
+        }
+        return program;
+    }
+
+    public DcmCallDescriptor byReference(final int _parmIdx) {
+        m_isByReference[_parmIdx] = true;
+        return this;
+    }
+
+    public DcmCallDescriptor constant(final int _parmIdx, final byte[] _value) {
+        m_constants[_parmIdx] = _value;
+        return this;
+    }
+
+    public String getName() {
+        return m_name;
+    }
+}
@@ -0,0 +1,181 @@
+package com.github.ibmioss.dcmtools.utils;
+
+import java.beans.PropertyVetoException;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import com.github.ibmioss.dcmtools.DcmUserOpts;
+import com.github.theprez.jcmdutils.AppLogger;
+import com.ibm.as400.access.AS400SecurityException;
+import com.ibm.as400.access.ErrorCompletingRequestException;
+import com.ibm.as400.access.ObjectDoesNotExistException;
+
+/**
+ * In-memory record of which certificate each application is assigned to, shared by everything running in this JVM.
+ * Entries are filled in with the Retrieve Certificate Usage Information API, expire after
+ * <tt>dcmtools.usage.ttl</tt> milliseconds, and are dropped whenever this process changes an application's
+ * assignment. Stores are compared by {@link #normalizeStore(String)}, so a store given by path matches the same
+ * store reported as <tt>*SYSTEM</tt>.
+ */
+public class DcmCertUsageRegistry {
+
+    public static class CertUsage {
+        private final String m_appId;
+        private final String m_certId;
+        private final String m_certStore;
+
+        public CertUsage(final String _appId, final String _certStore, final String _certId) {
+            m_appId = _appId;
+            m_certStore = _certStore;
+            m_certId = _certId;
+        }
+
+        public String getAppId() {
+            return m_appId;
+        }
+
+        public String getCertId() {
+            return m_certId;
+        }
+
+        public String getCertStore() {
+            return m_certStore;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s -> '%s' in %s", m_appId, m_certId, m_certStore);
+        }
+    }
+
+    private static class RegistryEntry {
+        private final long m_fetched = System.currentTimeMillis();
+        private final CertUsage m_usage;
+
+        RegistryEntry(final CertUsage _usage) {
+            m_usage = _usage;
+        }
+    }
+
+    private static final DcmCertUsageRegistry s_instance = new DcmCertUsageRegistry();
+    private static final long TTL_MS = Long.getLong("dcmtools.usage.ttl", 5 * 60 * 1000L);
+
+    public static DcmCertUsageRegistry get() {
+        return s_instance;
+    }
+
+    /**
+     * Names a certificate store the same way however it was given: DCM may report the system store as
+     * <tt>*SYSTEM</tt> rather than by its path, and paths in the IFS root file system are not case-sensitive.
+     */
+    static String normalizeStore(final String _certStore) {
+        final String store = null == _certStore ? "" : _certStore.trim();
+        if ("*SYSTEM".equalsIgnoreCase(store) || "system".equalsIgnoreCase(store) || DcmUserOpts.SYSTEM_DCM_STORE.equalsIgnoreCase(store)) {
+            return "*SYSTEM";
+        }
+        return store.toUpperCase(Locale.ROOT);
+    }
+
+    private static String usageKey(final String _certStore, final String _certId) {
+        return normalizeStore(_certStore) + "\u0000" + _certId;
+    }
+
+    private final Map<String, Set<String>> m_appsByCert = new HashMap<String, Set<String>>();
+    private final Map<String, RegistryEntry> m_byApp = new HashMap<String, RegistryEntry>();
+
+    private DcmCertUsageRegistry() {
+    }
+
+    /**
+     * Returns the applications (out of those given) that are assigned the given certificate. Only expired or unknown
+     * applications cause an API call.
+     */
+    public List<String> getAppsUsingCert(final AppLogger _logger, final DcmBackend _backend, final Collection<String> _appIds, final String _certStore, final String _certId) throws PropertyVetoException, AS400SecurityException, ErrorCompletingRequestException, IOException, InterruptedException, ObjectDoesNotExistException {
+        refresh(_logger, _backend, _appIds);
+        final List<String> ret = new LinkedList<String>();
+        synchronized (this) {
+            final Set<String> users = m_appsByCert.get(usageKey(_certStore, _certId));
+            if (null != users) {
+                for (final String app : new TreeSet<String>(users)) {
+                    if (_appIds.contains(app)) {
+                        ret.add(app);
+                    }
+                }
+            }
+        }
+        return ret;
+    }
+
+    private synchronized RegistryEntry getFresh(final String _appId) {
+        final RegistryEntry entry = m_byApp.get(_appId);
+        if (null == entry || System.currentTimeMillis() - entry.m_fetched > TTL_MS) {
+            return null;
+        }
+        return entry;
+    }
+
+    /**
+     * Returns the certificate assigned to the application, or <tt>null</tt> if none is.
+     */
+    public CertUsage getUsage(final AppLogger _logger, final DcmBackend _backend, final String _appId) throws PropertyVetoException, AS400SecurityException, ErrorCompletingRequestException, IOException, InterruptedException, ObjectDoesNotExistException {
+        final RegistryEntry cached = getFresh(_appId);
+        if (null != cached) {
+            return cached.m_usage;
+        }
+        final CertUsage usage = _backend.callQycdRetrieveCertUsageInfo(_logger, _appId);
+        put(_appId, usage);
+        return usage;
+    }
+
+    public synchronized void invalidate(final String _appId) {
+        final RegistryEntry old = m_byApp.remove(_appId);
+        if (null != old && null != old.m_usage) {
+            final Set<String> users = m_appsByCert.get(usageKey(old.m_usage.getCertStore(), old.m_usage.getCertId()));
+            if (null != users) {
+                users.remove(_appId);
+            }
+        }
+    }
+
+    public synchronized void invalidateAll() {
+        m_byApp.clear();
+        m_appsByCert.clear();
+    }
+
+    private synchronized void put(final String _appId, final CertUsage _usage) {
+        invalidate(_appId);
+        m_byApp.put(_appId, new RegistryEntry(_usage));
+        if (null != _usage) {
+            final String key = usageKey(_usage.getCertStore(), _usage.getCertId());
+            Set<String> users = m_appsByCert.get(key);
+            if (null == users) {
+                users = new LinkedHashSet<String>();
+                m_appsByCert.put(key, users);
+            }
+            users.add(_appId);
+        }
+    }
+
+    /**
+     * Makes sure every given application has an unexpired entry.
+     */
+    public void refresh(final AppLogger _logger, final DcmBackend _backend, final Collection<String> _appIds) throws PropertyVetoException, AS400SecurityException, ErrorCompletingRequestException, IOException, InterruptedException, ObjectDoesNotExistException {
+        for (final String appId : _appIds) {
+            try {
+                getUsage(_logger, _backend, appId);
+            } catch (final IOException e) {
+                // Most likely an application that is not registered on this system
+                _logger.println_verbose("Unable to retrieve certificate usage for " + appId + ": " + e.getLocalizedMessage());
+                put(appId, null);
+            }
+        }
+    }
+}
@@ -0,0 +1,233 @@
+package com.github.ibmioss.dcmtools.utils;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.security.cert.Certificate;
+import java.security.cert.CertificateEncodingException;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Locale;
+
+import com.github.ibmioss.dcmtools.utils.DcmChangeTracker.ChangeType;
+import com.github.ibmioss.dcmtools.utils.DcmChangeTracker.DcmChange;
+
+/**
+ * An append-only record of the changes made to a certificate store through these tools, kept under
+ * <tt>~/.dcmimport/journal</tt> with one file per store (and, off IBM i, per system). Every entry gets a sequence number, one higher than the entry
+ * before it, so that a reader can remember the last number it has seen and later ask for only the changes since then.
+ * Each entry is one line of tab-separated text: sequence number, time (milliseconds since the epoch), change type,
+ * URL-encoded label, and the SHA-256 fingerprints of the old and new certificates (<tt>-</tt> where there is none).
+ */
+public class DcmChangeJournal {
+
+    public static class JournalEntry {
+        private final String m_label;
+        private final String m_newFingerprint;
+        private final String m_oldFingerprint;
+        private final long m_seq;
+        private final long m_timestamp;
+        private final ChangeType m_type;
+
+        private JournalEntry(final long _seq, final long _timestamp, final ChangeType _type, final String _label, final String _oldFingerprint, final String _newFingerprint) {
+            m_seq = _seq;
+            m_timestamp = _timestamp;
+            m_type = _type;
+            m_label = _label;
+            m_oldFingerprint = _oldFingerprint;
+            m_newFingerprint = _newFingerprint;
+        }
+
+        public String getLabel() {
+            return m_label;
+        }
+
+        /**
+         * Hex SHA-256 of the DER encoding of the certificate now stored under the label, or <tt>null</tt>.
+         */
+        public String getNewFingerprint() {
+            return m_newFingerprint;
+        }
+
+        /**
+         * Hex SHA-256 of the DER encoding of the certificate previously stored under the label, or <tt>null</tt>.
+         */
+        public String getOldFingerprint() {
+            return m_oldFingerprint;
+        }
+
+        public long getSeq() {
+            return m_seq;
+        }
+
+        public long getTimestamp() {
+            return m_timestamp;
+        }
+
+        public ChangeType getType() {
+            return m_type;
+        }
+    }
+
+    private static final String NONE = "-";
+
+    /**
+     * Returns the journal of the given store on the given remote system, or on this system if <tt>_systemName</tt> is
+     * <tt>null</tt>. Stores on different systems often have the same path (such as the <tt>*SYSTEM</tt> store), so
+     * their sequence numbers are kept apart.
+     */
+    public static DcmChangeJournal forStore(final String _systemName, final String _dcmStore) {
+        final File dir = new File(System.getProperty("user.home", "~"), ".dcmimport/journal");
+        final String key = null == _systemName ? _dcmStore : _systemName.toUpperCase(Locale.ROOT) + '\0' + _dcmStore;
+        return new DcmChangeJournal(new File(dir, CertDigest.toHex(CertDigest.sha256(key.getBytes(StandardCharsets.UTF_8))) + ".journal"));
+    }
+
+    private static String fingerprint(final Certificate _cert) throws CertificateEncodingException {
+        if (null == _cert) {
+            return NONE;
+        }
+        return CertDigest.of(_cert).getFingerprint();
+    }
+
+    /**
+     * Length of the journal up to the end of its last complete line. Anything after that was left by a write that did
+     * not finish.
+     */
+    private static long completeLength(final RandomAccessFile _raf) throws IOException {
+        long pos = _raf.length();
+        while (0 < pos) {
+            _raf.seek(pos - 1);
+            if ('\n' == _raf.read()) {
+                break;
+            }
+            pos--;
+        }
+        return pos;
+    }
+
+    private final File m_file;
+
+    private DcmChangeJournal(final File _file) {
+        m_file = _file;
+    }
+
+    /**
+     * Appends the given changes, returning the sequence number of the last one (or of the last entry already in the
+     * journal, if there are no changes). Safe to call from several processes at once.
+     */
+    public long append(final List<DcmChange> _changes) throws IOException {
+        m_file.getParentFile().mkdirs();
+        try (RandomAccessFile raf = new RandomAccessFile(m_file, "rw"); FileChannel channel = raf.getChannel()) {
+            final FileLock lock = channel.lock();
+            try {
+                final long end = completeLength(raf);
+                if (end < raf.length()) {
+                    // drop what an interrupted append left behind, rather than gluing the new entries onto it
+                    raf.setLength(end);
+                }
+                long seq = lastSeq(raf, end);
+                final long now = System.currentTimeMillis();
+                final StringBuilder lines = new StringBuilder();
+                for (final DcmChange change : _changes) {
+                    seq++;
+                    lines.append(seq).append('\t').append(now).append('\t').append(change.getType().name());
+                    lines.append('\t').append(URLEncoder.encode(change.getLabel(), "UTF-8"));
+                    try {
+                        lines.append('\t').append(fingerprint(change.getOldCertificate()));
+                        lines.append('\t').append(fingerprint(change.getNewCertificate()));
+                    } catch (final CertificateEncodingException e) {
+                        throw new IOException(e);
+                    }
+                    lines.append('\n');
+                }
+                raf.seek(end);
+                raf.write(lines.toString().getBytes(StandardCharsets.UTF_8));
+                return seq;
+            } finally {
+                lock.release();
+            }
+        }
+    }
+
+    /**
+     * Returns every entry with a sequence number greater than <tt>_seq</tt>, oldest first. Pass 0 for the whole
+     * journal. Lines that cannot be parsed, and a last line that is still being written, are skipped.
+     */
+    public List<JournalEntry> getChangesSince(final long _seq) throws IOException {
+        final List<JournalEntry> ret = new LinkedList<JournalEntry>();
+        if (!m_file.isFile()) {
+            return ret;
+        }
+        final long end;
+        try (RandomAccessFile raf = new RandomAccessFile(m_file, "r")) {
+            end = completeLength(raf);
+        }
+        try (BufferedReader br = new BufferedReader(new InputStreamReader(new FileInputStream(m_file), StandardCharsets.UTF_8))) {
+            long pos = 0;
+            String line;
+            while (null != (line = br.readLine())) {
+                // entries are plain ASCII (the label is URL-encoded), so characters and bytes line up
+                pos += line.length() + 1;
+                if (pos > end) {
+                    break;
+                }
+                final JournalEntry entry = parse(line);
+                if (null != entry && entry.m_seq > _seq) {
+                    ret.add(entry);
+                }
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * Sequence number of the last entry that can be parsed, looking back from <tt>_end</tt>, or 0 if there is none.
+     */
+    private long lastSeq(final RandomAccessFile _raf, final long _end) throws IOException {
+        long end = _end;
+        while (0 < end) {
+            // end - 1 is the newline that ends this line
+            long start = end - 1;
+            while (0 < start) {
+                _raf.seek(start - 1);
+                if ('\n' == _raf.read()) {
+                    break;
+                }
+                start--;
+            }
+            final byte[] line = new byte[(int) (end - 1 - start)];
+            _raf.seek(start);
+            _raf.readFully(line);
+            final JournalEntry entry = parse(new String(line, StandardCharsets.UTF_8));
+            if (null != entry) {
+                return entry.m_seq;
+            }
+            end = start;
+        }
+        return 0;
+    }
+
+    /**
+     * Parses one line of the journal, returning <tt>null</tt> if it is blank or corrupt.
+     */
+    private static JournalEntry parse(final String _line) {
+        final String[] fields = _line.split("\t");
+        if (6 != fields.length) {
+            return null;
+        }
+        try {
+            return new JournalEntry(Long.parseLong(fields[0]), Long.parseLong(fields[1]), ChangeType.valueOf(fields[2]), URLDecoder.decode(fields[3], "UTF-8"), NONE.equals(fields[4]) ? null : fields[4], NONE.equals(fields[5]) ? null : fields[5]);
+        } catch (final IllegalArgumentException | UnsupportedEncodingException e) {
+            return null;
+        }
+    }
+}
@@ -5,11 +5,18 @@ import java.io.IOException;
 import java.security.KeyStoreException;
 import java.security.NoSuchAlgorithmException;
 import java.security.cert.Certificate;
+import java.security.cert.CertificateEncodingException;
 import java.security.cert.CertificateException;
 import java.util.ArrayList;
-import java.util.Collections;
-import java.util.LinkedList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
 
 import com.github.ibmioss.dcmtools.DcmUserOpts;
 import com.github.theprez.jcmdutils.AppLogger;
@@ -35,16 +42,38 @@ public class DcmChangeTracker {
             return ret;
         }
 
+        @Override
         public String getLabel() {
             return m_label;
         }
+
+        @Override
+        public Certificate getNewCertificate() {
+            return m_newCert;
+        }
+
+        @Override
+        public Certificate getOldCertificate() {
+            return null;
+        }
+
+        @Override
+        public ChangeType getType() {
+            return ChangeType.ADDED;
+        }
     }
 
-    public class CertRemovedChange implements DcmChange {
+    public static class CertRemovedChange implements DcmChange {
         private final String m_label;
+        private final Certificate m_oldCert;
 
         public CertRemovedChange(final String m_label) {
+            this(m_label, null);
+        }
+
+        public CertRemovedChange(final String m_label, final Certificate _oldCert) {
             this.m_label = m_label;
+            this.m_oldCert = _oldCert;
         }
 
         @Override
@@ -52,9 +81,25 @@ public class DcmChangeTracker {
             return String.format("%sRemoval: The certificate with ID '%s' has been removed\n", _linePrefix, m_label);
         }
 
+        @Override
         public String getLabel() {
             return m_label;
         }
+
+        @Override
+        public Certificate getNewCertificate() {
+            return null;
+        }
+
+        @Override
+        public Certificate getOldCertificate() {
+            return m_oldCert;
+        }
+
+        @Override
+        public ChangeType getType() {
+            return ChangeType.REMOVED;
+        }
     }
 
     public static class CertUpdatedhange implements DcmChange {
@@ -70,19 +115,53 @@ public class DcmChangeTracker {
 
         @Override
         public String getFormattedExplanation(final String _linePrefix) {
-            String ret = String.format("%sThe certificate with ID '%s' has been updated.\n", m_label);
-            ret += String.format("%s    The old certificate is:\n%s", _linePrefix, CertUtils.getCertInfoStr(m_oldCert, _linePrefix + "        "));
-            ret += String.format("%s    The new certificate is:\n%s", _linePrefix, CertUtils.getCertInfoStr(m_oldCert, _linePrefix + "        "));
+            String ret = String.format("%sThe certificate with ID '%s' has been updated.\n", _linePrefix, m_label);
+            ret += String.format("%s    The old certificate is:\n%s\n", _linePrefix, CertUtils.getCertInfoStr(m_oldCert, _linePrefix + "        "));
+            ret += String.format("%s    The new certificate is:\n%s", _linePrefix, CertUtils.getCertInfoStr(m_newCert, _linePrefix + "        "));
             return ret;
         }
 
+        @Override
         public String getLabel() {
             return m_label;
         }
+
+        @Override
+        public Certificate getNewCertificate() {
+            return m_newCert;
+        }
+
+        @Override
+        public Certificate getOldCertificate() {
+            return m_oldCert;
+        }
+
+        @Override
+        public ChangeType getType() {
+            return ChangeType.UPDATED;
+        }
+    }
+
+    public enum ChangeType {
+        ADDED, REMOVED, UPDATED
     }
 
     public interface DcmChange {
         public String getFormattedExplanation(String _linePrefix);
+
+        public String getLabel();
+
+        /**
+         * The certificate now stored under the label, or <tt>null</tt> if it was removed.
+         */
+        public Certificate getNewCertificate();
+
+        /**
+         * The certificate previously stored under the label, or <tt>null</tt> if it was added or is not known.
+         */
+        public Certificate getOldCertificate();
+
+        public ChangeType getType();
     }
 
     public static class NoChangesMadeException extends IOException {
@@ -98,53 +177,153 @@ public class DcmChangeTracker {
         }
     }
 
+    // changes the current operation means to make, keyed by label, for verifying without a full comparison
+    private final Map<String, DcmChange> m_expected = new LinkedHashMap<String, DcmChange>();
+
     private final DcmUserOpts m_opts;
 
-    private final KeyStoreInterrogator m_startingSnapshot;
+    private final Future<KeyStoreInterrogator> m_startingSnapshot;
 
     public DcmChangeTracker(final AppLogger _logger, final DcmUserOpts _opts) throws IOException, PropertyVetoException, AS400SecurityException, ErrorCompletingRequestException, InterruptedException, ObjectDoesNotExistException, KeyStoreException, NoSuchAlgorithmException, CertificateException {
-        m_startingSnapshot = KeyStoreInterrogator.getFromDCM(_logger, _opts.isYesMode(), _opts.getDcmStore(), _opts.getDcmPassword());
+        m_startingSnapshot = CompletableFuture.completedFuture(KeyStoreInterrogator.getFromDCM(_logger, _opts.isYesMode(), _opts.getDcmStore(), _opts.getDcmPassword()));
         m_opts = _opts;
     }
 
-    public synchronized List<DcmChange> getChanges(final AppLogger _logger) throws IOException, PropertyVetoException, AS400SecurityException, ErrorCompletingRequestException, InterruptedException, ObjectDoesNotExistException, KeyStoreException, NoSuchAlgorithmException, CertificateException {
-        final List<DcmChange> ret = new LinkedList<DcmChange>();
+    private DcmChangeTracker(final DcmUserOpts _opts, final Future<KeyStoreInterrogator> _startingSnapshot) {
+        m_opts = _opts;
+        m_startingSnapshot = _startingSnapshot;
+    }
 
-        // Get the current snapshot
-        final KeyStoreInterrogator current = KeyStoreInterrogator.getFromDCM(_logger, m_opts.isYesMode(), m_opts.getDcmStore(), m_opts.getDcmPassword());
+    /**
+     * Creates a tracker whose starting snapshot is read in the background, so that the caller can do other work in
+     * the meantime. Anything that needs the snapshot waits for it. The store name and password are resolved (and, if
+     * need be, asked for) on the calling thread.
+     */
+    public static DcmChangeTracker startInBackground(final AppLogger _logger, final DcmUserOpts _opts) throws IOException {
+        final boolean isYesMode = _opts.isYesMode();
+        final String dcmStore = _opts.getDcmStore();
+        final String dcmStorePw = _opts.getDcmPassword();
+        final FutureTask<KeyStoreInterrogator> snapshot = new FutureTask<KeyStoreInterrogator>(new Callable<KeyStoreInterrogator>() {
+            @Override
+            public KeyStoreInterrogator call() throws Exception {
+                return KeyStoreInterrogator.getFromDCM(_logger, isYesMode, dcmStore, dcmStorePw);
+            }
+        });
+        final Thread t = new Thread(snapshot, "dcm-snapshot");
+        t.setDaemon(true);
+        t.start();
+        return new DcmChangeTracker(_opts, snapshot);
+    }
+
+    /**
+     * Records that the current operation is adding the given certificate with the given label. Once every change the
+     * operation makes has been declared, {@link #getChanges(AppLogger)} only checks those labels, rather than
+     * comparing the whole store. See {@link DcmStoreReader#readLabels(AppLogger, boolean, String, String, java.util.Collection)}
+     * for when that also saves reading the whole store.
+     */
+    public synchronized void expectAdded(final String _label, final Certificate _cert) throws IOException, InterruptedException {
+        final Certificate oldCert = m_expected.containsKey(_label) ? m_expected.get(_label).getOldCertificate() : getStartingCertOrNull(_label);
+        m_expected.put(_label, null == oldCert ? new CertAddedhange(_label, _cert) : new CertUpdatedhange(_label, oldCert, _cert));
+    }
 
-        final ArrayList<String> startingAliases = Collections.list(m_startingSnapshot.getKeyStore().aliases());
-        final ArrayList<String> currentAliases = Collections.list(current.getKeyStore().aliases());
-        final List<String> intersection = new LinkedList<>(startingAliases);
-        intersection.retainAll(currentAliases);
+    /**
+     * Records that the current operation is removing the certificate with the given label.
+     *
+     * @see #expectAdded(String, Certificate)
+     */
+    public synchronized void expectRemoved(final String _label) throws IOException, InterruptedException {
+        m_expected.put(_label, new CertRemovedChange(_label, getStartingCertOrNull(_label)));
+    }
 
-        // look for deleted certificates
-        for (final String startingAlias : startingAliases) {
-            if (!current.getKeyStore().containsAlias(startingAlias)) {
-                ret.add(new CertRemovedChange(startingAlias));
+    public synchronized List<DcmChange> getChanges(final AppLogger _logger) throws IOException, PropertyVetoException, AS400SecurityException, ErrorCompletingRequestException, InterruptedException, ObjectDoesNotExistException, KeyStoreException, NoSuchAlgorithmException, CertificateException {
+        if (!m_expected.isEmpty()) {
+            final Map<String, Certificate> current = DcmStoreReader.readLabels(_logger, m_opts.isYesMode(), m_opts.getDcmStore(), m_opts.getDcmPassword(), m_expected.keySet());
+            if (isAsExpected(_logger, current)) {
+                _logger.println_verbose("Verified " + m_expected.size() + " expected change(s)");
+                final List<DcmChange> ret = new ArrayList<DcmChange>();
+                for (final ChangeType type : new ChangeType[] { ChangeType.REMOVED, ChangeType.ADDED, ChangeType.UPDATED }) {
+                    for (final DcmChange change : m_expected.values()) {
+                        if (type == change.getType()) {
+                            ret.add(change);
+                        }
+                    }
+                }
+                return ret;
             }
+            _logger.println_verbose("Certificate store does not contain the expected changes; comparing the whole store");
         }
+        // Get the current snapshot (if the store was just exported to check the expected changes, from the cache)
+        final DcmStoreReader current = DcmStoreReader.read(_logger, m_opts.isYesMode(), m_opts.getDcmStore(), m_opts.getDcmPassword());
+        return diff(_logger, getStartingSnapshot().getDigests(), new KeyStoreInterrogator(current.getKeyStore()).getDigests());
+    }
+
+    private Certificate getStartingCertOrNull(final String _label) throws IOException, InterruptedException {
+        final CertDigest digest = getStartingSnapshot().getDigest(_label);
+        return null == digest ? null : digest.getCertificate();
+    }
 
-        // look for new certificates
-        for (final String currentAlias : currentAliases) {
-            if (!startingAliases.contains(currentAlias)) {
-                ret.add(new CertAddedhange(currentAlias, current.getKeyStore().getCertificate(currentAlias)));
+    private boolean isAsExpected(final AppLogger _logger, final Map<String, Certificate> _current) throws CertificateEncodingException {
+        for (final DcmChange change : m_expected.values()) {
+            final Certificate currentCert = _current.get(change.getLabel());
+            if (ChangeType.REMOVED == change.getType()) {
+                if (null != currentCert) {
+                    return false;
+                }
+            } else {
+                if (null == currentCert) {
+                    return false;
+                }
+                final CertDigest expected = CertDigest.of(change.getNewCertificate());
+                final CertDigest actual = CertDigest.of(currentCert);
+                if (!expected.equals(actual) && !expected.matches(_logger, actual)) {
+                    return false;
+                }
             }
         }
+        return true;
+    }
 
-        // look for updated certificates
-        for (final String commonAlias : intersection) {
-            final Certificate oldCert = m_startingSnapshot.getKeyStore().getCertificate(commonAlias);
-            final Certificate newCert = current.getKeyStore().getCertificate(commonAlias);
-            if (!CertUtils.areCertsEqual(_logger, oldCert, newCert)) {
-                ret.add(new CertUpdatedhange(commonAlias, oldCert, newCert));
+    /**
+     * Compares two snapshots, each a map from alias to certificate digest. Removals are listed first, then additions,
+     * then updates, each in the order of the snapshot they come from.
+     */
+    public static List<DcmChange> diff(final AppLogger _logger, final Map<String, CertDigest> _starting, final Map<String, CertDigest> _current) throws CertificateEncodingException {
+        final List<DcmChange> removed = new ArrayList<DcmChange>();
+        final List<DcmChange> updated = new ArrayList<DcmChange>();
+        for (final Entry<String, CertDigest> entry : _starting.entrySet()) {
+            final CertDigest oldDigest = entry.getValue();
+            final CertDigest newDigest = _current.get(entry.getKey());
+            if (null == newDigest) {
+                removed.add(new CertRemovedChange(entry.getKey(), oldDigest.getCertificate()));
+            } else if (!oldDigest.equals(newDigest) && !oldDigest.matches(_logger, newDigest)) {
+                // Identical encodings are skipped above; only entries whose bytes differ get the full comparison
+                updated.add(new CertUpdatedhange(entry.getKey(), oldDigest.getCertificate(), newDigest.getCertificate()));
+            }
+        }
+        final List<DcmChange> ret = new ArrayList<DcmChange>(removed);
+        for (final Entry<String, CertDigest> entry : _current.entrySet()) {
+            if (!_starting.containsKey(entry.getKey())) {
+                ret.add(new CertAddedhange(entry.getKey(), entry.getValue().getCertificate()));
             }
         }
+        ret.addAll(updated);
         return ret;
     }
 
-    public KeyStoreInterrogator getStartingSnapshot() {
-        return m_startingSnapshot;
+    /**
+     * Returns the contents of the store when tracking started, waiting for it to be read if that is still in
+     * progress.
+     */
+    public KeyStoreInterrogator getStartingSnapshot() throws IOException, InterruptedException {
+        try {
+            return m_startingSnapshot.get();
+        } catch (final ExecutionException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw new IOException(cause.getLocalizedMessage(), cause);
+        }
     }
 
     public synchronized void printChanges(final AppLogger _logger, final String _resolutionText) throws IOException, KeyStoreException, NoSuchAlgorithmException, CertificateException, PropertyVetoException, AS400SecurityException, ErrorCompletingRequestException, InterruptedException, ObjectDoesNotExistException {
@@ -152,6 +331,12 @@ public class DcmChangeTracker {
         if (changes.isEmpty()) {
             throw new NoChangesMadeException(_resolutionText);
         }
+        try {
+            final long seq = DcmChangeJournal.forStore(DcmBackendFactory.getRemoteSystemName(m_opts.isYesMode()), m_opts.getDcmStore()).append(changes);
+            _logger.println_verbose("Recorded changes in journal, up to sequence number " + seq);
+        } catch (final IOException e) {
+            _logger.println_warn("WARNING: Unable to record changes in journal: " + e.getLocalizedMessage());
+        }
         _logger.println("The following changes were made on the DCM keystore:");
         for (final DcmChange change : changes) {
             _logger.println_success(change.getFormattedExplanation("    "));
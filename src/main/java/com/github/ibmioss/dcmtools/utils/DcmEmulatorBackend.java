@@ -0,0 +1,297 @@
+package com.github.ibmioss.dcmtools.utils;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.security.Key;
+import java.security.KeyStore;
+import java.security.cert.Certificate;
+import java.security.cert.CertificateFactory;
+import java.security.cert.X509Certificate;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import com.github.ibmioss.dcmtools.utils.DcmCertUsageRegistry.CertUsage;
+import com.github.theprez.jcmdutils.AppLogger;
+import com.github.theprez.jcmdutils.StringUtils;
+import com.github.theprez.jcmdutils.StringUtils.TerminalColor;
+
+/**
+ * Emulates the DCM APIs in-process, keeping each certificate store as a PKCS#12 file under a local directory. Meant
+ * for benchmarking and profiling the tools on a machine that is not IBM i. Selected by setting the system property
+ * <tt>dcmtools.backend=emulator</tt>, and tuned with the following properties:
+ * <ul>
+ * <li><tt>dcmtools.emulator.root</tt>: directory holding the emulated stores (default: <tt>~/.dcmimport/emulator</tt>)</li>
+ * <li><tt>dcmtools.emulator.latency</tt>: milliseconds to sleep on every call (default: 0)</li>
+ * <li><tt>dcmtools.emulator.jitter</tt>: up to this many extra milliseconds, chosen at random (default: 0)</li>
+ * <li><tt>dcmtools.emulator.failurerate</tt>: probability, from 0.0 to 1.0, that a call fails (default: 0.0)</li>
+ * <li><tt>dcmtools.emulator.seed</tt>: seed for latency jitter and failure injection</li>
+ * <li><tt>dcmtools.emulator.systempw</tt>: password of the *SYSTEM store, used by certificate renewal</li>
+ * </ul>
+ */
+public class DcmEmulatorBackend implements DcmBackend {
+
+    private static final Set<String> s_caTrust = Collections.synchronizedSet(new HashSet<String>());
+    private static final Map<String, String> s_knownPasswords = Collections.synchronizedMap(new HashMap<String, String>());
+    private static final Random s_random;
+    private static final Map<String, String> s_usage = Collections.synchronizedMap(new HashMap<String, String>());
+    static {
+        final Long seed = Long.getLong("dcmtools.emulator.seed");
+        s_random = null == seed ? new Random() : new Random(seed);
+    }
+
+    private static void apiError(final String _msgId) throws IOException {
+        throw new IOException("API gave error message " + new MessageLookerUpper(_msgId));
+    }
+
+    private final double m_failureRate;
+    private final long m_jitter;
+    private final long m_latency;
+    private final File m_root;
+
+    public DcmEmulatorBackend() {
+        m_root = new File(System.getProperty("dcmtools.emulator.root", new File(System.getProperty("user.home", "~"), ".dcmimport/emulator").getAbsolutePath()));
+        m_latency = Long.getLong("dcmtools.emulator.latency", 0L);
+        m_jitter = Long.getLong("dcmtools.emulator.jitter", 0L);
+        m_failureRate = Double.parseDouble(System.getProperty("dcmtools.emulator.failurerate", "0"));
+    }
+
+    private void beginCall(final AppLogger _logger, final String _api) throws IOException, InterruptedException {
+        long delay = m_latency;
+        final boolean isFailure;
+        synchronized (s_random) {
+            if (0 < m_jitter) {
+                delay += (long) (s_random.nextDouble() * m_jitter);
+            }
+            isFailure = s_random.nextDouble() < m_failureRate;
+        }
+        if (0 < delay) {
+            Thread.sleep(delay);
+        }
+        _logger.println_verbose(StringUtils.colorizeForTerminal("[emulator] " + _api, TerminalColor.CYAN));
+        if (isFailure) {
+            _logger.println_err("[emulator] injected failure in " + _api);
+            apiError("CPF22F0");
+        }
+    }
+
+    @Override
+    public void callQycdAddCACertTrust(final AppLogger _logger, final String _dcmStore, final String _dcmStorePw, final String _appId, final String _alias) throws IOException, InterruptedException {
+        beginCall(_logger, "QycdAddCACertTrust");
+        final KeyStore ks = loadStore(_dcmStore, _dcmStorePw);
+        requireAlias(ks, _alias);
+        s_caTrust.add(_appId + "\u0000" + _alias);
+    }
+
+    @Override
+    public void callQycdRemoveCertUsage(final AppLogger _logger, final String _dcmStore, final String _dcmStorePw, final String _appId, final String _alias) throws IOException, InterruptedException {
+        beginCall(_logger, "QycdRemoveCertUsage");
+        synchronized (s_usage) {
+            final String assigned = s_usage.get(_appId);
+            if (null == assigned || !assigned.equals(usageKey(_dcmStore, _alias))) {
+                apiError("CPF22F0");
+            }
+            s_usage.remove(_appId);
+        }
+        DcmCertUsageRegistry.get().invalidate(_appId);
+    }
+
+    @Override
+    public void callQycdRenewCertificate_RNWC0300(final AppLogger _logger, final String _file) throws IOException, InterruptedException {
+        beginCall(_logger, "QYCDRNWC");
+        final String systemStore = "/QIBM/UserData/ICSS/Cert/Server/DEFAULT.KDB";
+        String pw = s_knownPasswords.get(systemStore);
+        if (null == pw) {
+            pw = System.getProperty("dcmtools.emulator.systempw");
+        }
+        if (null == pw) {
+            apiError("CPFB003");
+        }
+        final X509Certificate newCert;
+        try (FileInputStream fis = new FileInputStream(_file)) {
+            newCert = (X509Certificate) CertificateFactory.getInstance("X.509").generateCertificate(fis);
+        } catch (final GeneralSecurityException e) {
+            throw new IOException(e);
+        }
+        final KeyStore ks = loadStore(systemStore, pw);
+        try {
+            for (final String alias : Collections.list(ks.aliases())) {
+                final Certificate existing = ks.getCertificate(alias);
+                if (null == existing || !Arrays.equals(existing.getPublicKey().getEncoded(), newCert.getPublicKey().getEncoded())) {
+                    continue;
+                }
+                if (ks.isKeyEntry(alias)) {
+                    final Key key = ks.getKey(alias, pw.toCharArray());
+                    ks.setKeyEntry(alias, key, pw.toCharArray(), new Certificate[] { newCert });
+                } else {
+                    ks.setCertificateEntry(alias, newCert);
+                }
+                storeStore(ks, systemStore, pw);
+                DcmSnapshotCache.get().invalidate(systemStore);
+                return;
+            }
+        } catch (final GeneralSecurityException e) {
+            throw new IOException(e);
+        }
+        apiError("CPF22F0");
+    }
+
+    @Override
+    public CertUsage callQycdRetrieveCertUsageInfo(final AppLogger _logger, final String _appId) throws IOException, InterruptedException {
+        beginCall(_logger, "QycdRetrieveCertUsageInfo");
+        final String assigned = s_usage.get(_appId);
+        if (null == assigned) {
+            return null;
+        }
+        final String[] parts = assigned.split("\u0000", 2);
+        return new CertUsage(_appId, parts[0], parts[1]);
+    }
+
+    @Override
+    public void callQycdUpdateCertUsage(final AppLogger _logger, final String _appId, final String _certStoreName, final String _certId) throws IOException, InterruptedException {
+        beginCall(_logger, "QycdUpdateCertUsage");
+        if (!storeFile(_certStoreName).isFile()) {
+            apiError("CPFB002");
+        }
+        s_usage.put(_appId, usageKey(_certStoreName, _certId));
+        DcmCertUsageRegistry.get().invalidate(_appId);
+    }
+
+    @Override
+    public void callQykmExportKeyStore(final AppLogger _logger, final String _dcmStore, final String _dcmStorePw, final String _exportFile, final String _exportFilePw) throws IOException, InterruptedException {
+        beginCall(_logger, "QYKMEXPK");
+        final File exportFile = new File(_exportFile);
+        if (exportFile.exists()) {
+            apiError("CPFB005");
+        }
+        final KeyStore ks = loadStore(_dcmStore, _dcmStorePw);
+        try {
+            final KeyStore tgt = KeyStore.getInstance("PKCS12");
+            tgt.load(null, _exportFilePw.toCharArray());
+            for (final String alias : Collections.list(ks.aliases())) {
+                if (ks.isKeyEntry(alias)) {
+                    tgt.setKeyEntry(alias, ks.getKey(alias, _dcmStorePw.toCharArray()), _exportFilePw.toCharArray(), ks.getCertificateChain(alias));
+                } else {
+                    tgt.setCertificateEntry(alias, ks.getCertificate(alias));
+                }
+            }
+            try (FileOutputStream fos = new FileOutputStream(exportFile)) {
+                tgt.store(fos, _exportFilePw.toCharArray());
+            }
+        } catch (final GeneralSecurityException e) {
+            throw new IOException(e);
+        }
+    }
+
+    @Override
+    public void callQykmImportKeyStore(final AppLogger _logger, final String _dcmStore, final String _dcmStorePw, final String _dcmImportFile, final String _importFilePw) throws IOException, InterruptedException {
+        beginCall(_logger, "QYKMIMPK");
+        final File importFile = new File(_dcmImportFile);
+        if (!importFile.isFile()) {
+            apiError("CPFB010");
+        }
+        final KeyStore src;
+        try (FileInputStream fis = new FileInputStream(importFile)) {
+            src = KeyStore.getInstance("PKCS12");
+            src.load(fis, _importFilePw.toCharArray());
+        } catch (final GeneralSecurityException | IOException e) {
+            apiError("CPFB011");
+            return;
+        }
+        final KeyStore ks = storeFile(_dcmStore).isFile() ? loadStore(_dcmStore, _dcmStorePw) : newStore(_dcmStorePw);
+        try {
+            for (final String alias : Collections.list(src.aliases())) {
+                if (ks.containsAlias(alias)) {
+                    apiError("CPFB012");
+                }
+            }
+            for (final String alias : Collections.list(src.aliases())) {
+                if (src.isKeyEntry(alias)) {
+                    ks.setKeyEntry(alias, src.getKey(alias, _importFilePw.toCharArray()), _dcmStorePw.toCharArray(), src.getCertificateChain(alias));
+                } else {
+                    ks.setCertificateEntry(alias, src.getCertificate(alias));
+                }
+            }
+        } catch (final GeneralSecurityException e) {
+            throw new IOException(e);
+        }
+        storeStore(ks, _dcmStore, _dcmStorePw);
+        DcmSnapshotCache.get().invalidate(_dcmStore);
+    }
+
+    @Override
+    public void close() throws IOException {
+    }
+
+    private KeyStore loadStore(final String _dcmStore, final String _dcmStorePw) throws IOException {
+        final File f = storeFile(_dcmStore);
+        if (!f.isFile()) {
+            apiError("CPFB002");
+        }
+        final KeyStore ks;
+        try (FileInputStream fis = new FileInputStream(f)) {
+            ks = KeyStore.getInstance("PKCS12");
+            ks.load(fis, _dcmStorePw.toCharArray());
+        } catch (final GeneralSecurityException | IOException e) {
+            apiError("CPFB003");
+            return null;
+        }
+        s_knownPasswords.put(_dcmStore, _dcmStorePw);
+        return ks;
+    }
+
+    private KeyStore newStore(final String _dcmStorePw) throws IOException {
+        try {
+            final KeyStore ks = KeyStore.getInstance("PKCS12");
+            ks.load(null, _dcmStorePw.toCharArray());
+            return ks;
+        } catch (final GeneralSecurityException e) {
+            throw new IOException(e);
+        }
+    }
+
+    private void requireAlias(final KeyStore _ks, final String _alias) throws IOException {
+        try {
+            if (!_ks.containsAlias(_alias)) {
+                apiError("CPF22F0");
+            }
+        } catch (final GeneralSecurityException e) {
+            throw new IOException(e);
+        }
+    }
+
+    /**
+     * Maps a DCM store path, such as <tt>/QIBM/UserData/ICSS/Cert/Server/DEFAULT.KDB</tt>, onto a file under the
+     * emulator root directory.
+     */
+    public File storeFile(final String _dcmStore) {
+        return new File(m_root, _dcmStore);
+    }
+
+    private void storeStore(final KeyStore _ks, final String _dcmStore, final String _dcmStorePw) throws IOException {
+        final File f = storeFile(_dcmStore);
+        f.getParentFile().mkdirs();
+        final File tmp = new File(f.getAbsolutePath() + ".tmp");
+        try (FileOutputStream fos = new FileOutputStream(tmp)) {
+            _ks.store(fos, _dcmStorePw.toCharArray());
+        } catch (final GeneralSecurityException e) {
+            throw new IOException(e);
+        }
+        if (f.exists()) {
+            FileUtils.delete(f);
+        }
+        FileUtils.rename(tmp, f);
+        s_knownPasswords.put(_dcmStore, _dcmStorePw);
+    }
+
+    private String usageKey(final String _dcmStore, final String _certId) {
+        return _dcmStore + "\u0000" + _certId;
+    }
+}
@@ -0,0 +1,244 @@
+package com.github.ibmioss.dcmtools.utils;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.concurrent.CountDownLatch;
+
+import com.github.theprez.jcmdutils.ConsoleQuestionAsker;
+import com.ibm.as400.access.AS400;
+import com.ibm.as400.access.AS400SecurityException;
+
+/**
+ * A small pool of signed-on {@link AS400} connections, shared by everything running in this JVM. Credentials are
+ * resolved once, when the session is first requested, and every pooled connection is created from them.
+ */
+public class DcmSession implements Closeable {
+
+    public class Lease implements Closeable {
+        private final PooledConnection m_pooled;
+        private boolean m_isReleased = false;
+
+        private Lease(final PooledConnection _pooled) {
+            m_pooled = _pooled;
+        }
+
+        @Override
+        public synchronized void close() {
+            if (m_isReleased) {
+                return;
+            }
+            m_isReleased = true;
+            release(m_pooled);
+        }
+
+        public AS400 getConnection() {
+            return m_pooled.m_conn;
+        }
+    }
+
+    private static class PooledConnection {
+        private final AS400 m_conn;
+        private long m_lastUsed = System.currentTimeMillis();
+
+        PooledConnection(final AS400 _conn) {
+            m_conn = _conn;
+        }
+    }
+
+    private static final long IDLE_TIMEOUT_MS = Long.getLong("dcmtools.pool.idletimeout", 5 * 60 * 1000L);
+    private static final int DEFAULT_MAX_CONNECTIONS = Math.max(1, Integer.getInteger("dcmtools.pool.size", 4));
+    private static DcmSession s_instance = null;
+
+    public static synchronized DcmSession get(final boolean _isYesMode) throws IOException {
+        if (null == s_instance) {
+            s_instance = new DcmSession(_isYesMode);
+            Runtime.getRuntime().addShutdownHook(new Thread() {
+                @Override
+                public void run() {
+                    s_instance.close();
+                }
+            });
+        }
+        return s_instance;
+    }
+
+    /**
+     * Whether DCM lives on another system than the one running this JVM, in which case any file handed to a DCM API
+     * has to be staged on that system's IFS first.
+     */
+    public static boolean isRemote() {
+        final String osName = System.getProperty("os.name", "");
+        return !osName.equalsIgnoreCase("OS/400") && !osName.equalsIgnoreCase("OS400");
+    }
+
+    private final LinkedList<PooledConnection> m_idle = new LinkedList<PooledConnection>();
+    private int m_maxConnections = DEFAULT_MAX_CONNECTIONS;
+    private int m_numOpen = 0;
+    /** Set when signing on is refused, so that the same credentials are not tried again (toward QMAXSIGN) */
+    private AS400SecurityException m_signOnFailure = null;
+    private final AS400 m_template;
+    private CountDownLatch m_warmUp = null;
+    private Thread m_warmUpThread = null;
+
+    private DcmSession(final boolean _isYesMode) throws IOException {
+        final String osName = System.getProperty("os.name", "");
+        if (osName.equalsIgnoreCase("OS/400")) { // Running on IBM i, using JV1
+            m_template = new AS400("localhost", "*CURRENT", "*CURRENT");
+        } else if (osName.equalsIgnoreCase("OS400")) { // Running on i, OpenJDK
+            if (_isYesMode) {
+                throw new IOException("IBM i password not specified. Run in interactive mode or with JV1 Java for this to work.");
+            }
+            m_template = new AS400("localhost", System.getProperty("user.name", "*CURRENT"), ConsoleQuestionAsker.get().askUserOrThrow("Enter IBM i password: "));
+        } else {
+            if (_isYesMode) {
+                throw new IOException("Not allowed with '-y'");
+            }
+            m_template = new AS400(ConsoleQuestionAsker.get().askUserOrThrow("Enter IBM i system name: "), ConsoleQuestionAsker.get().askUserOrThrow("Enter IBM i user name: "), ConsoleQuestionAsker.get().askUserForPwd("Enter IBM i password: "));
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        for (final PooledConnection pooled : m_idle) {
+            pooled.m_conn.disconnectAllServices();
+        }
+        m_numOpen -= m_idle.size();
+        m_idle.clear();
+    }
+
+    /**
+     * Name of the system that DCM is called on.
+     */
+    public String getSystemName() {
+        return m_template.getSystemName();
+    }
+
+    private synchronized void evictIdle() {
+        final long now = System.currentTimeMillis();
+        final Iterator<PooledConnection> it = m_idle.iterator();
+        while (it.hasNext()) {
+            final PooledConnection pooled = it.next();
+            if (now - pooled.m_lastUsed > IDLE_TIMEOUT_MS) {
+                it.remove();
+                m_numOpen--;
+                pooled.m_conn.disconnectAllServices();
+            }
+        }
+    }
+
+    private boolean isHealthy(final PooledConnection _pooled) {
+        final AS400 conn = _pooled.m_conn;
+        return conn.isConnected(AS400.COMMAND) && conn.isConnectionAlive(AS400.COMMAND);
+    }
+
+    /**
+     * Hands out a signed-on connection, reusing an idle one when possible. Blocks if every connection in the pool is
+     * already leased out. The returned lease must be closed to give the connection back.
+     */
+    public Lease lease() throws IOException, AS400SecurityException, InterruptedException {
+        final CountDownLatch warmUp;
+        synchronized (this) {
+            warmUp = Thread.currentThread() == m_warmUpThread ? null : m_warmUp;
+        }
+        if (null != warmUp) {
+            // A connection is already being signed on in the background; use it rather than starting another
+            warmUp.await();
+        }
+        synchronized (this) {
+            if (null != m_signOnFailure) {
+                throw m_signOnFailure;
+            }
+        }
+        while (true) {
+            PooledConnection candidate = null;
+            synchronized (this) {
+                evictIdle();
+                if (!m_idle.isEmpty()) {
+                    candidate = m_idle.removeFirst();
+                } else if (m_numOpen < m_maxConnections) {
+                    m_numOpen++;
+                } else {
+                    wait();
+                    continue;
+                }
+            }
+            if (null != candidate) {
+                if (isHealthy(candidate)) {
+                    return new Lease(candidate);
+                }
+                candidate.m_conn.disconnectAllServices();
+                synchronized (this) {
+                    m_numOpen--;
+                }
+                continue;
+            }
+            final long start = System.nanoTime();
+            boolean isSuccess = false;
+            try {
+                final AS400 conn = new AS400(m_template);
+                conn.connectService(AS400.COMMAND);
+                isSuccess = true;
+                return new Lease(new PooledConnection(conn));
+            } catch (IOException | AS400SecurityException | RuntimeException e) {
+                synchronized (this) {
+                    if (e instanceof AS400SecurityException) {
+                        m_signOnFailure = (AS400SecurityException) e;
+                    }
+                    m_numOpen--;
+                    notifyAll();
+                }
+                throw e;
+            } finally {
+                DcmApiStats.get().record("signon", start, isSuccess);
+            }
+        }
+    }
+
+    /**
+     * Starts signing on a connection in the background, so that it is ready by the time the first API call needs it.
+     * Any failure is not reported here. A refused sign-on is thrown by the next {@link #lease()} instead of being retried;
+     * anything else will surface again when a connection is actually leased.
+     */
+    public synchronized void warmUp() {
+        if (null != m_warmUp || 0 < m_numOpen) {
+            return;
+        }
+        final CountDownLatch latch = new CountDownLatch(1);
+        m_warmUp = latch;
+        m_warmUpThread = new Thread("dcm-warmup") {
+            @Override
+            public void run() {
+                try {
+                    lease().close();
+                } catch (final Exception e) {
+                    // a refused sign-on was recorded by lease()
+                } finally {
+                    latch.countDown();
+                    synchronized (DcmSession.this) {
+                        m_warmUp = null;
+                    }
+                }
+            }
+        };
+        m_warmUpThread.setDaemon(true);
+        m_warmUpThread.start();
+    }
+
+    /**
+     * Lets the pool grow to at least the given number of connections, for callers that will lease that many at once.
+     */
+    public synchronized void ensurePoolSize(final int _numConnections) {
+        if (_numConnections > m_maxConnections) {
+            m_maxConnections = _numConnections;
+            notifyAll();
+        }
+    }
+
+    private synchronized void release(final PooledConnection _pooled) {
+        _pooled.m_lastUsed = System.currentTimeMillis();
+        m_idle.addFirst(_pooled);
+        notifyAll();
+    }
+}
@@ -0,0 +1,436 @@
+package com.github.ibmioss.dcmtools.utils;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.security.cert.Certificate;
+import java.security.cert.CertificateFactory;
+import java.security.cert.X509Certificate;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import javax.crypto.AEADBadTagException;
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.PBEKeySpec;
+import javax.crypto.spec.SecretKeySpec;
+
+import com.github.theprez.jcmdutils.AppLogger;
+
+/**
+ * An on-disk cache of the certificates in DCM certificate stores, kept under <tt>~/.dcmimport/snapshots</tt>. Each
+ * snapshot records the identity of the store file it was read from (path, size, modification time and SHA-256 of the
+ * contents), and is only used while the store file still has that identity and is asked for with the same password.
+ * The {@link StoreDigest} and {@link HostnameIndex} of the store are kept alongside, so that they can be read without
+ * parsing any certificates.
+ * Everything but the identity is encrypted (AES-GCM) with a key derived from the store password with PBKDF2, so no
+ * password hash is stored; a snapshot that does not decrypt with the password given is treated as a cache miss.
+ * Only certificates are cached, never private keys. Set the system property <tt>dcmtools.cache.disabled=true</tt> to turn the cache off.
+ */
+public class DcmSnapshotCache {
+
+    /**
+     * Identifies one version of a certificate store file.
+     */
+    public static class StoreIdentity {
+        private final byte[] m_contentHash;
+        private final long m_lastModified;
+        private final String m_path;
+        private final long m_size;
+
+        private StoreIdentity(final String _path, final long _size, final long _lastModified, final byte[] _contentHash) {
+            m_path = _path;
+            m_size = _size;
+            m_lastModified = _lastModified;
+            m_contentHash = _contentHash;
+        }
+
+        @Override
+        public boolean equals(final Object _obj) {
+            if (!(_obj instanceof StoreIdentity)) {
+                return false;
+            }
+            final StoreIdentity other = (StoreIdentity) _obj;
+            return m_path.equals(other.m_path) && m_size == other.m_size && m_lastModified == other.m_lastModified && Arrays.equals(m_contentHash, other.m_contentHash);
+        }
+
+        @Override
+        public int hashCode() {
+            return Arrays.hashCode(m_contentHash);
+        }
+    }
+
+    private static final String CIPHER = "AES/GCM/NoPadding";
+    private static final int FORMAT_VERSION = 4;
+    private static final int GCM_TAG_BITS = 128;
+    private static final String KEY_ALGORITHM = "PBKDF2WithHmacSHA256";
+    private static final int KEY_BITS = 256;
+    private static final String MAGIC = "DCMSNAP";
+    // more than this in a snapshot header means the header is damaged, not that the key is that expensive
+    private static final int MAX_ITERATIONS = 100000000;
+    private static final int PBKDF2_ITERATIONS = 600000;
+
+    private static final DcmSnapshotCache s_instance = new DcmSnapshotCache();
+    private static final SecureRandom s_random = new SecureRandom();
+
+    public static DcmSnapshotCache get() {
+        return s_instance;
+    }
+
+    /**
+     * The identity fields as written in the snapshot header, authenticated along with the encrypted contents.
+     */
+    private static byte[] identityBytes(final String _path, final long _size, final long _lastModified, final byte[] _contentHash) throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeUTF(_path);
+            out.writeLong(_size);
+            out.writeLong(_lastModified);
+            out.writeInt(_contentHash.length);
+            out.write(_contentHash);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static byte[] readBytes(final DataInputStream _in) throws IOException {
+        final byte[] ret = new byte[_in.readInt()];
+        _in.readFully(ret);
+        return ret;
+    }
+
+    private final File m_dir;
+    private final boolean m_isEnabled;
+    // the last key derived, since deriving one is deliberately slow and a command usually reads and saves one store
+    private SecretKey m_key = null;
+    private int m_keyIterations = 0;
+    private String m_keyPw = null;
+    private byte[] m_keySalt = null;
+
+    private DcmSnapshotCache() {
+        m_dir = new File(System.getProperty("user.home", "~"), ".dcmimport/snapshots");
+        m_isEnabled = !Boolean.getBoolean("dcmtools.cache.disabled");
+    }
+
+    private File cacheFile(final String _dcmStore) {
+        return new File(m_dir, CertDigest.toHex(CertDigest.sha256(_dcmStore.getBytes(StandardCharsets.UTF_8))) + ".snap");
+    }
+
+    /**
+     * Reads the current identity of the given store, or returns <tt>null</tt> if the store file cannot be read from
+     * this JVM (for instance when DCM is on a remote system).
+     */
+    private synchronized SecretKey getKey(final byte[] _salt, final int _iterations, final String _pw) throws GeneralSecurityException {
+        if (null != m_key && _iterations == m_keyIterations && Arrays.equals(_salt, m_keySalt) && _pw.equals(m_keyPw)) {
+            return m_key;
+        }
+        final PBEKeySpec spec = new PBEKeySpec(_pw.toCharArray(), _salt, _iterations, KEY_BITS);
+        try {
+            m_key = new SecretKeySpec(SecretKeyFactory.getInstance(KEY_ALGORITHM).generateSecret(spec).getEncoded(), "AES");
+        } finally {
+            spec.clearPassword();
+        }
+        m_keySalt = _salt.clone();
+        m_keyIterations = _iterations;
+        m_keyPw = _pw;
+        return m_key;
+    }
+
+    public StoreIdentity getIdentity(final String _dcmStore) {
+        if (!m_isEnabled) {
+            return null;
+        }
+        final File storeFile = DcmBackendFactory.getLocalStoreFile(_dcmStore);
+        if (null == storeFile || !storeFile.isFile() || !storeFile.canRead()) {
+            return null;
+        }
+        try {
+            final long size = storeFile.length();
+            final long lastModified = storeFile.lastModified();
+            final MessageDigest md = CertDigest.newSha256();
+            try (InputStream in = new FileInputStream(storeFile)) {
+                final byte[] buf = new byte[64 * 1024];
+                int bytesRead;
+                while (-1 != (bytesRead = in.read(buf))) {
+                    md.update(buf, 0, bytesRead);
+                }
+            }
+            return new StoreIdentity(_dcmStore, size, lastModified, md.digest());
+        } catch (final IOException e) {
+            return null;
+        }
+    }
+
+    public void invalidate(final String _dcmStore) {
+        final File f = cacheFile(_dcmStore);
+        if (f.exists() && !f.delete()) {
+            f.deleteOnExit();
+        }
+    }
+
+    public void invalidateAll() {
+        final File[] files = m_dir.listFiles();
+        if (null == files) {
+            return;
+        }
+        for (final File f : files) {
+            if (f.getName().endsWith(".snap")) {
+                f.delete();
+            }
+        }
+    }
+
+    /**
+     * Returns the cached contents of the store, or <tt>null</tt> if there is no snapshot matching the given identity.
+     * The returned key store holds a certificate entry for every alias in the store.
+     */
+    public KeyStore load(final AppLogger _logger, final StoreIdentity _identity, final String _dcmStorePw) {
+        if (null == _identity) {
+            return null;
+        }
+        return load(_logger, _identity.m_path, _identity, _dcmStorePw);
+    }
+
+    /**
+     * Returns the most recent snapshot of the given store, however old, or <tt>null</tt> if there is none.
+     */
+    public KeyStore loadLatest(final AppLogger _logger, final String _dcmStore, final String _dcmStorePw) {
+        return load(_logger, _dcmStore, null, _dcmStorePw);
+    }
+
+    private KeyStore load(final AppLogger _logger, final String _dcmStore, final StoreIdentity _identity, final String _dcmStorePw) {
+        final File f = cacheFile(_dcmStore);
+        if (!f.isFile()) {
+            return null;
+        }
+        try (DataInputStream in = open(_logger, f, _dcmStore, _identity, _dcmStorePw)) {
+            if (null == in) {
+                return null;
+            }
+            readDigest(in);
+            HostnameIndex.readFrom(in, _dcmStore);
+            final CertificateFactory cf = CertificateFactory.getInstance("X.509");
+            final KeyStore ks = KeyStore.getInstance("PKCS12");
+            ks.load(null, null);
+            final int numEntries = in.readInt();
+            for (int i = 0; i < numEntries; ++i) {
+                final String alias = in.readUTF();
+                final byte[] der = new byte[in.readInt()];
+                in.readFully(der);
+                ks.setCertificateEntry(alias, cf.generateCertificate(new ByteArrayInputStream(der)));
+            }
+            return ks;
+        } catch (final IOException | GeneralSecurityException e) {
+            _logger.println_verbose("Ignoring unreadable snapshot " + f.getName() + ": " + e.getLocalizedMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Returns the {@link StoreDigest} recorded with the snapshot matching the given identity, or <tt>null</tt> if there
+     * is none. Cheaper than {@link #load(AppLogger, StoreIdentity, String)}, since no certificate is parsed.
+     */
+    public StoreDigest loadDigest(final AppLogger _logger, final StoreIdentity _identity, final String _dcmStorePw) {
+        if (null == _identity) {
+            return null;
+        }
+        final File f = cacheFile(_identity.m_path);
+        if (!f.isFile()) {
+            return null;
+        }
+        try (DataInputStream in = open(_logger, f, _identity.m_path, _identity, _dcmStorePw)) {
+            return null == in ? null : readDigest(in);
+        } catch (final IOException e) {
+            _logger.println_verbose("Ignoring unreadable snapshot " + f.getName() + ": " + e.getLocalizedMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Returns the {@link HostnameIndex} recorded with the snapshot matching the given identity, or <tt>null</tt> if
+     * there is none. Like {@link #loadDigest(AppLogger, StoreIdentity, String)}, no certificate is parsed.
+     */
+    public HostnameIndex loadHostnameIndex(final AppLogger _logger, final StoreIdentity _identity, final String _dcmStorePw) {
+        if (null == _identity) {
+            return null;
+        }
+        final File f = cacheFile(_identity.m_path);
+        if (!f.isFile()) {
+            return null;
+        }
+        try (DataInputStream in = open(_logger, f, _identity.m_path, _identity, _dcmStorePw)) {
+            if (null == in) {
+                return null;
+            }
+            readDigest(in);
+            return HostnameIndex.readFrom(in, _identity.m_path);
+        } catch (final IOException e) {
+            _logger.println_verbose("Ignoring unreadable snapshot " + f.getName() + ": " + e.getLocalizedMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Checks the snapshot header and decrypts the rest of the snapshot, returning <tt>null</tt> if the snapshot is not
+     * usable for the given identity (if any) and password.
+     */
+    private DataInputStream open(final AppLogger _logger, final File _f, final String _dcmStore, final StoreIdentity _identity, final String _dcmStorePw) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(_f)))) {
+            if (!MAGIC.equals(in.readUTF()) || FORMAT_VERSION != in.readInt()) {
+                return null;
+            }
+            final String path = in.readUTF();
+            final long size = in.readLong();
+            final long lastModified = in.readLong();
+            final byte[] contentHash = readBytes(in);
+            if (null != _identity && !_identity.equals(new StoreIdentity(path, size, lastModified, contentHash))) {
+                _logger.println_verbose("Cached snapshot of " + _dcmStore + " is out of date");
+                return null;
+            }
+            final byte[] salt = readBytes(in);
+            final int iterations = in.readInt();
+            if (0 >= iterations || MAX_ITERATIONS < iterations) {
+                throw new IOException("Unexpected iteration count " + iterations);
+            }
+            final byte[] iv = readBytes(in);
+            final byte[] sealed = readBytes(in);
+            final Cipher cipher = Cipher.getInstance(CIPHER);
+            cipher.init(Cipher.DECRYPT_MODE, getKey(salt, iterations, _dcmStorePw), new GCMParameterSpec(GCM_TAG_BITS, iv));
+            cipher.updateAAD(identityBytes(path, size, lastModified, contentHash));
+            try {
+                return new DataInputStream(new ByteArrayInputStream(cipher.doFinal(sealed)));
+            } catch (final AEADBadTagException e) {
+                _logger.println_verbose("Cached snapshot of " + _dcmStore + " was read with a different password");
+                return null;
+            }
+        } catch (final GeneralSecurityException e) {
+            throw new IOException(e.getLocalizedMessage(), e);
+        }
+    }
+
+    /**
+     * Reads the store digest at the start of the decrypted contents.
+     */
+    private static StoreDigest readDigest(final DataInputStream _in) throws IOException {
+        final byte[][] leaves = new byte[_in.readInt()][];
+        if (StoreDigest.NUM_BUCKETS != leaves.length) {
+            throw new IOException("Unexpected store digest size " + leaves.length);
+        }
+        for (int i = 0; i < leaves.length; ++i) {
+            leaves[i] = readBytes(_in);
+        }
+        return StoreDigest.fromLeaves(leaves);
+    }
+
+    /**
+     * Returns the salt of the last key derived, if it was for the same password and iteration count, so that saving a
+     * snapshot after reading one does not derive another key; otherwise a new random salt.
+     */
+    private synchronized byte[] getSaltFor(final String _pw) {
+        if (null != m_key && PBKDF2_ITERATIONS == m_keyIterations && _pw.equals(m_keyPw)) {
+            return m_keySalt.clone();
+        }
+        final byte[] ret = new byte[16];
+        s_random.nextBytes(ret);
+        return ret;
+    }
+
+    /**
+     * Saves the certificates in <tt>_ks</tt> as the snapshot of the store version identified by <tt>_identity</tt>.
+     * Failures are logged and otherwise ignored.
+     */
+    public void save(final AppLogger _logger, final StoreIdentity _identity, final String _dcmStorePw, final KeyStore _ks) {
+        if (null == _identity) {
+            return;
+        }
+        final Map<String, byte[]> entries = new LinkedHashMap<String, byte[]>();
+        final Map<String, String> fingerprints = new LinkedHashMap<String, String>();
+        final HostnameIndex hostnameIndex = new HostnameIndex();
+        try {
+            for (final String alias : Collections.list(_ks.aliases())) {
+                final Certificate cert = _ks.getCertificate(alias);
+                if (null != cert) {
+                    if (cert instanceof X509Certificate) {
+                        hostnameIndex.add(_identity.m_path, alias, (X509Certificate) cert);
+                    }
+                    entries.put(alias, cert.getEncoded());
+                    // the same fingerprint that StoreDigest.ofCerts() uses, so the cached digest matches a fresh one
+                    fingerprints.put(alias, CertDigest.of(cert).getFingerprint());
+                }
+            }
+        } catch (final GeneralSecurityException e) {
+            _logger.println_verbose("Not caching snapshot: " + e.getLocalizedMessage());
+            return;
+        }
+        m_dir.mkdirs();
+        final File f = cacheFile(_identity.m_path);
+        final File tmp = new File(f.getAbsolutePath() + ".tmp");
+        tmp.delete();
+        try {
+            final ByteArrayOutputStream contents = new ByteArrayOutputStream();
+            try (DataOutputStream out = new DataOutputStream(contents)) {
+                final StoreDigest digest = StoreDigest.of(fingerprints);
+                out.writeInt(StoreDigest.NUM_BUCKETS);
+                for (int i = 0; i < StoreDigest.NUM_BUCKETS; ++i) {
+                    final byte[] leaf = digest.getLeaf(i);
+                    out.writeInt(leaf.length);
+                    out.write(leaf);
+                }
+                hostnameIndex.writeTo(out);
+                out.writeInt(entries.size());
+                for (final Entry<String, byte[]> entry : entries.entrySet()) {
+                    out.writeUTF(entry.getKey());
+                    out.writeInt(entry.getValue().length);
+                    out.write(entry.getValue());
+                }
+            }
+            final byte[] salt = getSaltFor(_dcmStorePw);
+            final byte[] iv = new byte[12];
+            s_random.nextBytes(iv);
+            final Cipher cipher = Cipher.getInstance(CIPHER);
+            cipher.init(Cipher.ENCRYPT_MODE, getKey(salt, PBKDF2_ITERATIONS, _dcmStorePw), new GCMParameterSpec(GCM_TAG_BITS, iv));
+            cipher.updateAAD(identityBytes(_identity.m_path, _identity.m_size, _identity.m_lastModified, _identity.m_contentHash));
+            final byte[] sealed = cipher.doFinal(contents.toByteArray());
+
+            tmp.createNewFile();
+            tmp.setReadable(false, false);
+            tmp.setReadable(true, true);
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+                out.writeUTF(MAGIC);
+                out.writeInt(FORMAT_VERSION);
+                out.write(identityBytes(_identity.m_path, _identity.m_size, _identity.m_lastModified, _identity.m_contentHash));
+                out.writeInt(salt.length);
+                out.write(salt);
+                out.writeInt(PBKDF2_ITERATIONS);
+                out.writeInt(iv.length);
+                out.write(iv);
+                out.writeInt(sealed.length);
+                out.write(sealed);
+            }
+            f.delete();
+            if (!tmp.renameTo(f)) {
+                throw new IOException("Unable to rename " + tmp.getName());
+            }
+        } catch (final IOException | GeneralSecurityException e) {
+            tmp.delete();
+            _logger.println_verbose("Not caching snapshot: " + e.getLocalizedMessage());
+        }
+    }
+}
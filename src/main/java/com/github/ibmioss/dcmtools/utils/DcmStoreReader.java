@@ -0,0 +1,168 @@
+package com.github.ibmioss.dcmtools.utils;
+
+import java.beans.PropertyVetoException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.security.KeyStore;
+import java.security.KeyStoreException;
+import java.security.NoSuchAlgorithmException;
+import java.security.Security;
+import java.security.cert.Certificate;
+import java.security.cert.CertificateException;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.github.ibmioss.dcmtools.utils.DcmSnapshotCache.StoreIdentity;
+import com.github.theprez.jcmdutils.AppLogger;
+import com.ibm.as400.access.AS400SecurityException;
+import com.ibm.as400.access.ErrorCompletingRequestException;
+import com.ibm.as400.access.ObjectDoesNotExistException;
+
+/**
+ * Reads the contents of a DCM certificate store for commands that do not change it. When running on IBM i with the
+ * <tt>IBMi5OSKeyStore</tt> provider available, the store is loaded in-process; otherwise it is exported through the
+ * QYKMEXPK API to a temporary file and loaded from there. Either way, the result is remembered in
+ * {@link DcmSnapshotCache} and reused for as long as the store file does not change.
+ */
+public class DcmStoreReader {
+
+    public enum ReadPath {
+        /** Taken from {@link DcmSnapshotCache}, because the store has not changed since it was last read */
+        CACHE,
+        /** Loaded in-process through the <tt>IBMi5OSKeyStore</tt> provider */
+        DIRECT,
+        /** Exported to a temporary file through QYKMEXPK */
+        EXPORT_API
+    }
+
+    private static final String DIRECT_KEYSTORE_TYPE = "IBMi5OSKeyStore";
+
+    /**
+     * Whether {@link #read(AppLogger, boolean, String, String)} can load the given store without calling any DCM API.
+     */
+    public static boolean canReadDirectly(final String _dcmStore) {
+        if (DcmBackendFactory.isEmulated() || DcmSession.isRemote() || Boolean.getBoolean("dcmtools.read.noDirect")) {
+            return false;
+        }
+        if (!new File(_dcmStore).canRead()) {
+            return false;
+        }
+        for (final String type : Security.getAlgorithms("KeyStore")) {
+            if (DIRECT_KEYSTORE_TYPE.equalsIgnoreCase(type)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public static DcmStoreReader read(final AppLogger _logger, final boolean _isYesMode, final String _dcmStore, final String _dcmStorePw)
+            throws IOException, PropertyVetoException, AS400SecurityException, ErrorCompletingRequestException, InterruptedException, ObjectDoesNotExistException, KeyStoreException, NoSuchAlgorithmException, CertificateException {
+        // The identity is taken before reading, so that a store changing underneath us is re-read next time
+        final StoreIdentity identity = DcmSnapshotCache.get().getIdentity(_dcmStore);
+        final KeyStore cached = DcmSnapshotCache.get().load(_logger, identity, _dcmStorePw);
+        if (null != cached) {
+            return new DcmStoreReader(_logger, cached, ReadPath.CACHE);
+        }
+        final KeyStore direct = loadDirectlyOrNull(_logger, _dcmStore, _dcmStorePw);
+        if (null != direct) {
+            DcmSnapshotCache.get().save(_logger, identity, _dcmStorePw, direct);
+            return new DcmStoreReader(_logger, direct, ReadPath.DIRECT);
+        }
+        final KeyStore ks = CertUtils.exportDcmStoreToKeystoreObj(_logger, _isYesMode, _dcmStore, _dcmStorePw);
+        DcmSnapshotCache.get().save(_logger, identity, _dcmStorePw, ks);
+        return new DcmStoreReader(_logger, ks, ReadPath.EXPORT_API);
+    }
+
+    private static KeyStore loadDirectlyOrNull(final AppLogger _logger, final String _dcmStore, final String _dcmStorePw) {
+        if (!canReadDirectly(_dcmStore)) {
+            return null;
+        }
+        try {
+            final KeyStore ks = KeyStore.getInstance(DIRECT_KEYSTORE_TYPE);
+            try (FileInputStream fis = new FileInputStream(_dcmStore)) {
+                ks.load(fis, _dcmStorePw.toCharArray());
+            }
+            return ks;
+        } catch (final IOException | KeyStoreException | NoSuchAlgorithmException | CertificateException e) {
+            _logger.printExceptionStack_verbose(e);
+            _logger.println_verbose("Unable to load certificate store directly, falling back to export: " + e.getLocalizedMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Returns the certificate stored under each of the given labels, or <tt>null</tt> for a label with none. When the
+     * snapshot cache is current or the store can be read directly, only those labels are looked up, and no snapshot
+     * is written. Otherwise (in particular off IBM i, where no DCM API returns a single certificate) the whole store
+     * is {@link #read(AppLogger, boolean, String, String) read}, and only the work after that is saved.
+     */
+    public static Map<String, Certificate> readLabels(final AppLogger _logger, final boolean _isYesMode, final String _dcmStore, final String _dcmStorePw, final Collection<String> _labels)
+            throws IOException, PropertyVetoException, AS400SecurityException, ErrorCompletingRequestException, InterruptedException, ObjectDoesNotExistException, KeyStoreException, NoSuchAlgorithmException, CertificateException {
+        KeyStore ks = DcmSnapshotCache.get().load(_logger, DcmSnapshotCache.get().getIdentity(_dcmStore), _dcmStorePw);
+        ReadPath readPath = ReadPath.CACHE;
+        if (null == ks) {
+            ks = loadDirectlyOrNull(_logger, _dcmStore, _dcmStorePw);
+            readPath = ReadPath.DIRECT;
+        }
+        if (null == ks) {
+            ks = read(_logger, _isYesMode, _dcmStore, _dcmStorePw).getKeyStore();
+        } else {
+            _logger.println_verbose("Looked up " + _labels.size() + " label(s) using path " + readPath);
+        }
+        final Map<String, Certificate> ret = new LinkedHashMap<String, Certificate>();
+        for (final String label : _labels) {
+            ret.put(label, ks.getCertificate(label));
+        }
+        return ret;
+    }
+
+    /**
+     * Returns the {@link StoreDigest} of the given store. When the snapshot cache is current, the digest recorded with
+     * it is used and no certificate is read; otherwise the store is {@link #read(AppLogger, boolean, String, String)
+     * read} first.
+     */
+    public static StoreDigest readDigest(final AppLogger _logger, final boolean _isYesMode, final String _dcmStore, final String _dcmStorePw)
+            throws IOException, PropertyVetoException, AS400SecurityException, ErrorCompletingRequestException, InterruptedException, ObjectDoesNotExistException, KeyStoreException, NoSuchAlgorithmException, CertificateException {
+        final StoreDigest cached = DcmSnapshotCache.get().loadDigest(_logger, DcmSnapshotCache.get().getIdentity(_dcmStore), _dcmStorePw);
+        if (null != cached) {
+            _logger.println_verbose("Read certificate store digest using path " + ReadPath.CACHE);
+            return cached;
+        }
+        return StoreDigest.ofCerts(new KeyStoreInterrogator(read(_logger, _isYesMode, _dcmStore, _dcmStorePw).getKeyStore()).getDigests());
+    }
+
+    /**
+     * Returns the {@link HostnameIndex} of the given store, from the snapshot cache when it is current and otherwise by
+     * {@link #read(AppLogger, boolean, String, String) reading} the store first.
+     */
+    public static HostnameIndex readHostnameIndex(final AppLogger _logger, final boolean _isYesMode, final String _dcmStore, final String _dcmStorePw)
+            throws IOException, PropertyVetoException, AS400SecurityException, ErrorCompletingRequestException, InterruptedException, ObjectDoesNotExistException, KeyStoreException, NoSuchAlgorithmException, CertificateException {
+        final HostnameIndex cached = DcmSnapshotCache.get().loadHostnameIndex(_logger, DcmSnapshotCache.get().getIdentity(_dcmStore), _dcmStorePw);
+        if (null != cached) {
+            _logger.println_verbose("Read host name index using path " + ReadPath.CACHE);
+            return cached;
+        }
+        final HostnameIndex ret = new HostnameIndex();
+        ret.add(_dcmStore, read(_logger, _isYesMode, _dcmStore, _dcmStorePw).getKeyStore());
+        return ret;
+    }
+
+    private final KeyStore m_keyStore;
+    private final ReadPath m_readPath;
+
+    private DcmStoreReader(final AppLogger _logger, final KeyStore _keyStore, final ReadPath _readPath) {
+        m_keyStore = _keyStore;
+        m_readPath = _readPath;
+        _logger.println_verbose("Read certificate store using path " + _readPath);
+    }
+
+    public KeyStore getKeyStore() {
+        return m_keyStore;
+    }
+
+    public ReadPath getReadPath() {
+        return m_readPath;
+    }
+}
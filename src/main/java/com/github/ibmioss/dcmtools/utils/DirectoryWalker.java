@@ -0,0 +1,155 @@
+package com.github.ibmioss.dcmtools.utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitOption;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Set;
+
+import com.github.theprez.jcmdutils.AppLogger;
+
+/**
+ * Finds the input files in a directory tree. Glob patterns without a <tt>/</tt> (such as <tt>*.pem</tt>) are matched
+ * against file names, and those with one (such as <tt>live/**</tt>) against the path relative to the directory being
+ * walked. A file is taken if it matches any include pattern (or there are none) and no exclude pattern; a directory
+ * matching an exclude pattern is not entered at all. Symbolic links to files are always followed, while symbolic
+ * links to directories are only followed when {@link #setFollowLinks(boolean)} is set. Files that are passed over are
+ * counted, and only listed in verbose mode.
+ */
+public class DirectoryWalker {
+
+    /**
+     * The files found by one walk.
+     */
+    public static class Walk {
+        private final List<File> m_files = new LinkedList<File>();
+        private int m_numSkipped = 0;
+
+        public List<File> getFiles() {
+            return Collections.unmodifiableList(m_files);
+        }
+
+        /**
+         * Number of files and directories passed over: filtered out, too deep, unreadable, or symbolic links not
+         * followed.
+         */
+        public int getNumSkipped() {
+            return m_numSkipped;
+        }
+    }
+
+    private static PathMatcher toMatcher(final String _glob) {
+        final PathMatcher matcher = FileSystems.getDefault().getPathMatcher("glob:" + _glob);
+        final boolean isPathPattern = _glob.contains("/");
+        return new PathMatcher() {
+            @Override
+            public boolean matches(final Path _relativePath) {
+                final Path fileName = _relativePath.getFileName();
+                return matcher.matches(isPathPattern || null == fileName ? _relativePath : fileName);
+            }
+        };
+    }
+
+    private final List<PathMatcher> m_excludes = new LinkedList<PathMatcher>();
+    private final List<PathMatcher> m_includes = new LinkedList<PathMatcher>();
+    private boolean m_isFollowingLinks = false;
+    private int m_maxDepth = Integer.MAX_VALUE;
+
+    public void addExclude(final String _glob) {
+        m_excludes.add(toMatcher(_glob));
+    }
+
+    public void addInclude(final String _glob) {
+        m_includes.add(toMatcher(_glob));
+    }
+
+    private boolean isExcluded(final Path _relativePath) {
+        for (final PathMatcher exclude : m_excludes) {
+            if (exclude.matches(_relativePath)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean isIncluded(final Path _relativePath) {
+        if (m_includes.isEmpty()) {
+            return true;
+        }
+        for (final PathMatcher include : m_includes) {
+            if (include.matches(_relativePath)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Whether to descend into directories reached through symbolic links. A directory that links back to one of its
+     * parents is skipped either way.
+     */
+    public void setFollowLinks(final boolean _isFollowingLinks) {
+        m_isFollowingLinks = _isFollowingLinks;
+    }
+
+    /**
+     * How many levels of directories to descend: 1 for only the files directly in the directory. Unlimited by default.
+     */
+    public void setMaxDepth(final int _maxDepth) {
+        m_maxDepth = Math.max(1, _maxDepth);
+    }
+
+    public Walk walk(final AppLogger _logger, final File _dir) throws IOException {
+        final Walk ret = new Walk();
+        final Path root = _dir.toPath();
+        final Set<FileVisitOption> options = m_isFollowingLinks ? EnumSet.of(FileVisitOption.FOLLOW_LINKS) : EnumSet.noneOf(FileVisitOption.class);
+        Files.walkFileTree(root, options, m_maxDepth, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(final Path _dir, final BasicFileAttributes _attrs) {
+                if (!root.equals(_dir) && isExcluded(root.relativize(_dir))) {
+                    _logger.println_verbose("Skipping directory " + _dir + ": excluded");
+                    ret.m_numSkipped++;
+                    return FileVisitResult.SKIP_SUBTREE;
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(final Path _file, final BasicFileAttributes _attrs) {
+                // directories beyond the depth limit, and (when not following links) links to directories, end up here
+                if (_attrs.isDirectory() || (_attrs.isSymbolicLink() && !Files.isRegularFile(_file))) {
+                    _logger.println_verbose("Skipping " + _file + ": " + (_attrs.isDirectory() ? "deeper than the depth limit" : "link to a directory, or broken link"));
+                    ret.m_numSkipped++;
+                    return FileVisitResult.CONTINUE;
+                }
+                final Path relativePath = root.relativize(_file);
+                if (!isIncluded(relativePath) || isExcluded(relativePath)) {
+                    _logger.println_verbose("Skipping " + _file + ": " + (isExcluded(relativePath) ? "excluded" : "not included"));
+                    ret.m_numSkipped++;
+                    return FileVisitResult.CONTINUE;
+                }
+                ret.m_files.add(_file.toFile());
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(final Path _file, final IOException _exc) {
+                // unreadable, or a link back to a parent directory
+                _logger.println_verbose("Skipping " + _file + ": " + _exc);
+                ret.m_numSkipped++;
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        return ret;
+    }
+}
@@ -0,0 +1,64 @@
+package com.github.ibmioss.dcmtools.utils;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A Bloom filter over certificate fingerprints (the SHA-256 hashes from {@link CertDigest#getDerHash()}). It answers
+ * "definitely not present" exactly and "present" with a small chance of being wrong, in about 10 bits per certificate.
+ * Since the fingerprints are already uniformly distributed, the bit positions are taken straight from them by double
+ * hashing rather than by hashing again.
+ */
+public class FingerprintBloomFilter {
+
+    private static final double FALSE_POSITIVE_RATE = 0.01;
+
+    private final long[] m_bits;
+    private final int m_numBits;
+    private final int m_numHashes;
+
+    /**
+     * Creates a filter sized for the given number of fingerprints at a 1% false-positive rate.
+     */
+    public FingerprintBloomFilter(final int _expectedEntries) {
+        final int n = Math.max(1, _expectedEntries);
+        final double ln2 = Math.log(2);
+        m_numBits = (int) Math.max(64, Math.ceil(-n * Math.log(FALSE_POSITIVE_RATE) / (ln2 * ln2)));
+        m_numHashes = (int) Math.max(1, Math.round((double) m_numBits / n * ln2));
+        m_bits = new long[(m_numBits + 63) / 64];
+    }
+
+    public void add(final ByteBuffer _fingerprint) {
+        final long h1 = _fingerprint.getLong(_fingerprint.position());
+        final long h2 = _fingerprint.getLong(_fingerprint.position() + 8);
+        for (int i = 0; i < m_numHashes; ++i) {
+            final int bit = bitFor(h1, h2, i);
+            m_bits[bit >>> 6] |= 1L << bit;
+        }
+    }
+
+    private int bitFor(final long _h1, final long _h2, final int _i) {
+        return (int) (((_h1 + _i * _h2) & Long.MAX_VALUE) % m_numBits);
+    }
+
+    /**
+     * Whether the fingerprint may have been {@link #add(ByteBuffer) added}. A <tt>false</tt> answer is always right.
+     */
+    public boolean mightContain(final ByteBuffer _fingerprint) {
+        final long h1 = _fingerprint.getLong(_fingerprint.position());
+        final long h2 = _fingerprint.getLong(_fingerprint.position() + 8);
+        for (int i = 0; i < m_numHashes; ++i) {
+            final int bit = bitFor(h1, h2, i);
+            if (0 == (m_bits[bit >>> 6] & (1L << bit))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Approximate memory used by the filter, in bytes.
+     */
+    public int getSizeInBytes() {
+        return m_bits.length * 8;
+    }
+}
@@ -0,0 +1,206 @@
+package com.github.ibmioss.dcmtools.utils;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.security.KeyStore;
+import java.security.KeyStoreException;
+import java.security.cert.Certificate;
+import java.security.cert.CertificateParsingException;
+import java.security.cert.X509Certificate;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+import javax.naming.InvalidNameException;
+import javax.naming.ldap.LdapName;
+import javax.naming.ldap.Rdn;
+
+/**
+ * An index from DNS names to the certificates that cover them, built from the subject alternative name (dNSName)
+ * entries and the subject CN of each certificate. The CN is indexed even when there are alternative names, since the
+ * point is to find the certificate an endpoint may be serving, not to validate it. A wildcard name such as
+ * <tt>*.example.com</tt> covers exactly one extra label (<tt>www.example.com</tt>, but not <tt>example.com</tt> or
+ * <tt>a.b.example.com</tt>). Lookups are two hash lookups, however many certificates are indexed. The index of a store
+ * is kept with its {@link DcmSnapshotCache snapshot}, so that it is only built when the store changes.
+ */
+public class HostnameIndex {
+
+    /**
+     * A certificate that covers a looked-up host name.
+     */
+    public static class Match {
+        private final String m_alias;
+        private final String m_dcmStore;
+        private final String m_name;
+        private final Date m_notAfter;
+
+        private Match(final String _dcmStore, final String _alias, final String _name, final Date _notAfter) {
+            m_dcmStore = _dcmStore;
+            m_alias = _alias;
+            m_name = _name;
+            m_notAfter = _notAfter;
+        }
+
+        public String getAlias() {
+            return m_alias;
+        }
+
+        public String getDcmStore() {
+            return m_dcmStore;
+        }
+
+        /**
+         * The name in the certificate that matched, which may be a wildcard.
+         */
+        public String getName() {
+            return m_name;
+        }
+
+        public Date getNotAfter() {
+            return m_notAfter;
+        }
+
+        public boolean isExpired() {
+            return m_notAfter.before(new Date());
+        }
+    }
+
+    private static final int SAN_DNS_NAME = 2;
+
+    static Set<String> getDnsNames(final X509Certificate _cert) {
+        final Set<String> ret = new LinkedHashSet<String>();
+        try {
+            final Collection<List<?>> sans = _cert.getSubjectAlternativeNames();
+            if (null != sans) {
+                for (final List<?> san : sans) {
+                    if (SAN_DNS_NAME == ((Integer) san.get(0)).intValue()) {
+                        ret.add(normalize((String) san.get(1)));
+                    }
+                }
+            }
+        } catch (final CertificateParsingException e) {
+            // still index the CN
+        }
+        try {
+            for (final Rdn rdn : new LdapName(_cert.getSubjectX500Principal().getName()).getRdns()) {
+                if ("CN".equalsIgnoreCase(rdn.getType())) {
+                    ret.add(normalize(rdn.getValue().toString()));
+                }
+            }
+        } catch (final InvalidNameException e) {
+            // no usable name
+        }
+        return ret;
+    }
+
+    private static String normalize(final String _name) {
+        String ret = _name.trim().toLowerCase(Locale.ROOT);
+        while (ret.endsWith(".")) {
+            ret = ret.substring(0, ret.length() - 1);
+        }
+        return ret;
+    }
+
+    /** Keyed by the full name, for names without a wildcard */
+    private final Map<String, List<Match>> m_exact = new HashMap<String, List<Match>>();
+    /** Keyed by the part after <tt>*.</tt>, for wildcard names */
+    private final Map<String, List<Match>> m_wildcard = new HashMap<String, List<Match>>();
+
+    /**
+     * Indexes every X.509 certificate in the given key store, as found in the given DCM store.
+     */
+    public void add(final String _dcmStore, final KeyStore _ks) throws KeyStoreException {
+        for (final String alias : Collections.list(_ks.aliases())) {
+            final Certificate cert = _ks.getCertificate(alias);
+            if (cert instanceof X509Certificate) {
+                add(_dcmStore, alias, (X509Certificate) cert);
+            }
+        }
+    }
+
+    public void add(final String _dcmStore, final String _alias, final X509Certificate _cert) {
+        for (final String name : getDnsNames(_cert)) {
+            put(new Match(_dcmStore, _alias, name, _cert.getNotAfter()));
+        }
+    }
+
+    /**
+     * Returns every indexed certificate that covers the given host name, exact matches first. A certificate that
+     * covers the name in several ways (for instance by name and by wildcard) is only returned once, for the first.
+     */
+    public List<Match> lookup(final String _host) {
+        final String host = normalize(_host);
+        final Map<String, Match> ret = new LinkedHashMap<String, Match>();
+        addMatches(ret, m_exact.get(host));
+        final int dot = host.indexOf('.');
+        if (0 < dot) {
+            addMatches(ret, m_wildcard.get(host.substring(dot + 1)));
+        }
+        return new LinkedList<Match>(ret.values());
+    }
+
+    private static void addMatches(final Map<String, Match> _ret, final List<Match> _matches) {
+        if (null == _matches) {
+            return;
+        }
+        for (final Match match : _matches) {
+            final String key = match.m_dcmStore + "\u0000" + match.m_alias;
+            if (!_ret.containsKey(key)) {
+                _ret.put(key, match);
+            }
+        }
+    }
+
+    private void put(final Match _match) {
+        final Map<String, List<Match>> index = _match.m_name.startsWith("*.") ? m_wildcard : m_exact;
+        final String key = _match.m_name.startsWith("*.") ? _match.m_name.substring(2) : _match.m_name;
+        List<Match> matches = index.get(key);
+        if (null == matches) {
+            matches = new LinkedList<Match>();
+            index.put(key, matches);
+        }
+        matches.add(_match);
+    }
+
+    /**
+     * Reads an index written by {@link #writeTo(DataOutputStream)}, for the given store.
+     */
+    static HostnameIndex readFrom(final DataInputStream _in, final String _dcmStore) throws IOException {
+        final HostnameIndex ret = new HostnameIndex();
+        final int numMatches = _in.readInt();
+        for (int i = 0; i < numMatches; ++i) {
+            final String name = _in.readUTF();
+            final String alias = _in.readUTF();
+            ret.put(new Match(_dcmStore, alias, name, new Date(_in.readLong())));
+        }
+        return ret;
+    }
+
+    /**
+     * Writes the names, aliases and expiry dates in the index. The store they were found in is not written.
+     */
+    void writeTo(final DataOutputStream _out) throws IOException {
+        final List<Match> matches = new LinkedList<Match>();
+        for (final List<Match> exact : m_exact.values()) {
+            matches.addAll(exact);
+        }
+        for (final List<Match> wildcard : m_wildcard.values()) {
+            matches.addAll(wildcard);
+        }
+        _out.writeInt(matches.size());
+        for (final Match match : matches) {
+            _out.writeUTF(match.m_name);
+            _out.writeUTF(match.m_alias);
+            _out.writeLong(match.m_notAfter.getTime());
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package com.github.ibmioss.dcmtools.utils;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import com.github.theprez.jcmdutils.AppLogger;
+import com.github.theprez.jcmdutils.StringUtils;
+import com.ibm.as400.access.AS400;
+import com.ibm.as400.access.AS400SecurityException;
+import com.ibm.as400.access.IFSFile;
+import com.ibm.as400.access.IFSFileInputStream;
+import com.ibm.as400.access.IFSFileOutputStream;
+
+/**
+ * Moves the files that the DCM APIs read and write between this machine and the IFS of a remote IBM i, over an
+ * existing connection. Remote files are created in the directory named by the system property
+ * <tt>dcmtools.remote.tmpdir</tt> (default: <tt>/tmp</tt>).
+ */
+public class IfsTransfer {
+    private static final int BUFFER_SIZE = 256 * 1024;
+
+    private static long copy(final OutputStream _dest, final InputStream _src) throws IOException {
+        final byte[] buf = new byte[BUFFER_SIZE];
+        int bytesRead = 0;
+        long totalBytesRead = 0;
+        while (-1 != (bytesRead = _src.read(buf))) {
+            totalBytesRead += bytesRead;
+            _dest.write(buf, 0, bytesRead);
+        }
+        return totalBytesRead;
+    }
+
+    public static void delete(final AppLogger _logger, final AS400 _conn, final String _remotePath) {
+        try {
+            final IFSFile remote = new IFSFile(_conn, _remotePath);
+            if (remote.exists() && !remote.delete()) {
+                _logger.println_warn("WARNING: Unable to delete remote file " + _remotePath);
+            }
+        } catch (final IOException e) {
+            _logger.println_warn("WARNING: Unable to delete remote file " + _remotePath + ": " + e.getLocalizedMessage());
+        }
+    }
+
+    public static void download(final AppLogger _logger, final AS400 _conn, final String _remotePath, final File _local) throws IOException, AS400SecurityException {
+        try (IFSFileInputStream in = new IFSFileInputStream(_conn, _remotePath, IFSFileInputStream.SHARE_NONE); OutputStream out = new FileOutputStream(_local)) {
+            final long bytes = copy(out, in);
+            _logger.println_verbose(String.format("Downloaded %d bytes from %s:%s", bytes, _conn.getSystemName(), _remotePath));
+        }
+    }
+
+    /**
+     * Returns an unused file name in the remote temporary directory. The file is not created.
+     */
+    public static String newRemoteTempPath() {
+        final String dir = System.getProperty("dcmtools.remote.tmpdir", "/tmp");
+        return dir + (dir.endsWith("/") ? "" : "/") + ".dcmtools." + StringUtils.generateRandomString(12) + ".p12";
+    }
+
+    public static String upload(final AppLogger _logger, final AS400 _conn, final File _local) throws IOException, AS400SecurityException {
+        final String remotePath = newRemoteTempPath();
+        try (InputStream in = new FileInputStream(_local); IFSFileOutputStream out = new IFSFileOutputStream(_conn, remotePath, IFSFileOutputStream.SHARE_NONE, false)) {
+            final long bytes = copy(out, in);
+            _logger.println_verbose(String.format("Uploaded %d bytes to %s:%s", bytes, _conn.getSystemName(), remotePath));
+        } catch (IOException | AS400SecurityException e) {
+            delete(_logger, _conn, remotePath);
+            throw e;
+        }
+        return remotePath;
+    }
+}
@@ -0,0 +1,139 @@
+package com.github.ibmioss.dcmtools.utils;
+
+import java.nio.charset.StandardCharsets;
+import java.security.KeyStore;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * The format of an input file, as told from its first few bytes, so that {@link KeyStoreLoader} can hand it straight
+ * to the right parser instead of trying one after another.
+ */
+public enum InputFormat {
+    /** A Java key store, which starts with the magic number <tt>0xFEEDFEED</tt> */
+    JKS("JKS"),
+    /** A JCE key store, which starts with the magic number <tt>0xCECECECE</tt> */
+    JCEKS("JCEKS"),
+    /** A DER-encoded PKCS#12 key store: a SEQUENCE whose first element is an INTEGER (the version) */
+    PKCS12("PKCS12", "PKCS12V3"),
+    /**
+     * DER-encoded certificates: a SEQUENCE whose first element is a SEQUENCE (an X.509 certificate) or an OBJECT
+     * IDENTIFIER (a PKCS#7 bundle)
+     */
+    DER_CERTIFICATES,
+    /** PEM-armored certificates, possibly preceded by other text */
+    PEM_CERTIFICATES,
+    /** None of the above, so every parser has to be tried */
+    UNKNOWN(KeyStore.getDefaultType(), "JKS", "PKCS12", "JCEKS", "PKCS12V3");
+
+    private static final byte DER_INTEGER = 0x02;
+    private static final byte DER_OID = 0x06;
+    private static final byte DER_SEQUENCE = 0x30;
+
+    /** How many leading bytes {@link #sniff(byte[])} needs to see */
+    public static final int SNIFF_LENGTH = 64 * 1024;
+
+    /**
+     * Tells the format of the given file contents.
+     */
+    public static InputFormat sniff(final byte[] _data) {
+        if (4 <= _data.length) {
+            final int magic = ((_data[0] & 0xff) << 24) | ((_data[1] & 0xff) << 16) | ((_data[2] & 0xff) << 8) | (_data[3] & 0xff);
+            if (0xFEEDFEED == magic) {
+                return JKS;
+            }
+            if (0xCECECECE == magic) {
+                return JCEKS;
+            }
+        }
+        if (2 <= _data.length && DER_SEQUENCE == _data[0]) {
+            final int contentOffset = derContentOffset(_data);
+            if (0 < contentOffset && contentOffset < _data.length) {
+                switch (_data[contentOffset]) {
+                    case DER_INTEGER:
+                        return PKCS12;
+                    case DER_SEQUENCE:
+                    case DER_OID:
+                        return DER_CERTIFICATES;
+                    default:
+                        break;
+                }
+            }
+        }
+        final String head = new String(_data, 0, Math.min(_data.length, SNIFF_LENGTH), StandardCharsets.ISO_8859_1);
+        if (head.contains("-----BEGIN ")) {
+            return PEM_CERTIFICATES;
+        }
+        return UNKNOWN;
+    }
+
+    /**
+     * Offset of the contents of the DER element at the start of the data, just past its tag and length, or -1 if the
+     * length is malformed.
+     */
+    private static int derContentOffset(final byte[] _data) {
+        final int firstLengthByte = _data[1] & 0xff;
+        if (0x80 > firstLengthByte) {
+            return 2;
+        }
+        final int numLengthBytes = firstLengthByte & 0x7f;
+        if (0 == numLengthBytes || 4 < numLengthBytes) {
+            // indefinite length (BER, as some PKCS#12 writers produce) has no length bytes to skip
+            return 0x80 == firstLengthByte ? 2 : -1;
+        }
+        return 2 + numLengthBytes;
+    }
+
+    private final String[] m_keyStoreTypes;
+
+    private InputFormat(final String... _keyStoreTypes) {
+        m_keyStoreTypes = _keyStoreTypes;
+    }
+
+    /**
+     * The key store types to try for this format, in order. Empty if the format is not a key store.
+     */
+    public String[] getKeyStoreTypes() {
+        return m_keyStoreTypes.clone();
+    }
+
+    /**
+     * The key store types to try when none of {@link #getKeyStoreTypes()} could load the file, for instance because
+     * of a wrong password: those of {@link #UNKNOWN}, less any that would read this format again and repeat its
+     * (possibly expensive) integrity check. Empty for {@link #UNKNOWN} itself, which has already tried them all.
+     */
+    public String[] getFallbackKeyStoreTypes() {
+        if (UNKNOWN == this) {
+            return new String[0];
+        }
+        final Set<String> sameFormat = new HashSet<String>();
+        for (final String type : m_keyStoreTypes) {
+            sameFormat.add(type.toUpperCase(Locale.ROOT));
+        }
+        if (PKCS12 == this) {
+            // JKS key stores read PKCS#12 files too (keystore.type.compat)
+            sameFormat.add("JKS");
+        } else if (JKS == this) {
+            // JCEKS key stores read JKS files too
+            sameFormat.add("JCEKS");
+        }
+        final List<String> ret = new LinkedList<String>();
+        for (final String type : UNKNOWN.m_keyStoreTypes) {
+            // the default type is also listed by name
+            if (sameFormat.add(type.toUpperCase(Locale.ROOT))) {
+                ret.add(type);
+            }
+        }
+        return ret.toArray(new String[ret.size()]);
+    }
+
+    /**
+     * Whether the contents may be parsed as certificates.
+     */
+    public boolean mayHoldCertificates() {
+        return DER_CERTIFICATES == this || PEM_CERTIFICATES == this || UNKNOWN == this;
+    }
+}
@@ -0,0 +1,112 @@
+package com.github.ibmioss.dcmtools.utils;
+
+import java.beans.PropertyVetoException;
+import java.io.IOException;
+
+import com.github.ibmioss.dcmtools.utils.DcmCertUsageRegistry.CertUsage;
+import com.github.theprez.jcmdutils.AppLogger;
+import com.ibm.as400.access.AS400SecurityException;
+import com.ibm.as400.access.ErrorCompletingRequestException;
+import com.ibm.as400.access.ObjectDoesNotExistException;
+
+/**
+ * Wraps another {@link DcmBackend}, recording the latency and outcome of every call in {@link DcmApiStats}.
+ */
+public class InstrumentedDcmBackend implements DcmBackend {
+
+    private final DcmBackend m_delegate;
+
+    public InstrumentedDcmBackend(final DcmBackend _delegate) {
+        m_delegate = _delegate;
+    }
+
+    @Override
+    public void callQycdAddCACertTrust(final AppLogger _logger, final String _dcmStore, final String _dcmStorePw, final String _appId, final String _alias) throws PropertyVetoException, AS400SecurityException, ErrorCompletingRequestException, IOException, InterruptedException, ObjectDoesNotExistException {
+        final long start = System.nanoTime();
+        boolean isSuccess = false;
+        try {
+            m_delegate.callQycdAddCACertTrust(_logger, _dcmStore, _dcmStorePw, _appId, _alias);
+            isSuccess = true;
+        } finally {
+            DcmApiStats.get().record("QycdAddCACertTrust", start, isSuccess);
+        }
+    }
+
+    @Override
+    public void callQycdRemoveCertUsage(final AppLogger _logger, final String _dcmStore, final String _dcmStorePw, final String _appId, final String _alias) throws PropertyVetoException, AS400SecurityException, ErrorCompletingRequestException, IOException, InterruptedException, ObjectDoesNotExistException {
+        final long start = System.nanoTime();
+        boolean isSuccess = false;
+        try {
+            m_delegate.callQycdRemoveCertUsage(_logger, _dcmStore, _dcmStorePw, _appId, _alias);
+            isSuccess = true;
+        } finally {
+            DcmApiStats.get().record("QycdRemoveCertUsage", start, isSuccess);
+        }
+    }
+
+    @Override
+    public void callQycdRenewCertificate_RNWC0300(final AppLogger _logger, final String _file) throws PropertyVetoException, AS400SecurityException, ErrorCompletingRequestException, IOException, InterruptedException, ObjectDoesNotExistException {
+        final long start = System.nanoTime();
+        boolean isSuccess = false;
+        try {
+            m_delegate.callQycdRenewCertificate_RNWC0300(_logger, _file);
+            isSuccess = true;
+        } finally {
+            DcmApiStats.get().record("QYCDRNWC", start, isSuccess);
+        }
+    }
+
+    @Override
+    public CertUsage callQycdRetrieveCertUsageInfo(final AppLogger _logger, final String _appId) throws PropertyVetoException, AS400SecurityException, ErrorCompletingRequestException, IOException, InterruptedException, ObjectDoesNotExistException {
+        final long start = System.nanoTime();
+        boolean isSuccess = false;
+        try {
+            final CertUsage ret = m_delegate.callQycdRetrieveCertUsageInfo(_logger, _appId);
+            isSuccess = true;
+            return ret;
+        } finally {
+            DcmApiStats.get().record("QycdRetrieveCertUsageInfo", start, isSuccess);
+        }
+    }
+
+    @Override
+    public void callQycdUpdateCertUsage(final AppLogger _logger, final String _appId, final String _certStoreName, final String _certId) throws PropertyVetoException, AS400SecurityException, ErrorCompletingRequestException, IOException, InterruptedException, ObjectDoesNotExistException {
+        final long start = System.nanoTime();
+        boolean isSuccess = false;
+        try {
+            m_delegate.callQycdUpdateCertUsage(_logger, _appId, _certStoreName, _certId);
+            isSuccess = true;
+        } finally {
+            DcmApiStats.get().record("QycdUpdateCertUsage", start, isSuccess);
+        }
+    }
+
+    @Override
+    public void callQykmExportKeyStore(final AppLogger _logger, final String _dcmStore, final String _dcmStorePw, final String _exportFile, final String _exportFilePw) throws PropertyVetoException, AS400SecurityException, ErrorCompletingRequestException, IOException, InterruptedException, ObjectDoesNotExistException {
+        final long start = System.nanoTime();
+        boolean isSuccess = false;
+        try {
+            m_delegate.callQykmExportKeyStore(_logger, _dcmStore, _dcmStorePw, _exportFile, _exportFilePw);
+            isSuccess = true;
+        } finally {
+            DcmApiStats.get().record("QYKMEXPK", start, isSuccess);
+        }
+    }
+
+    @Override
+    public void callQykmImportKeyStore(final AppLogger _logger, final String _dcmStore, final String _dcmStorePw, final String _dcmImportFile, final String _importFilePw) throws PropertyVetoException, AS400SecurityException, ErrorCompletingRequestException, IOException, InterruptedException, ObjectDoesNotExistException {
+        final long start = System.nanoTime();
+        boolean isSuccess = false;
+        try {
+            m_delegate.callQykmImportKeyStore(_logger, _dcmStore, _dcmStorePw, _dcmImportFile, _importFilePw);
+            isSuccess = true;
+        } finally {
+            DcmApiStats.get().record("QYKMIMPK", start, isSuccess);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        m_delegate.close();
+    }
+}
@@ -1,20 +1,23 @@
 package com.github.ibmioss.dcmtools.utils;
 
 import java.beans.PropertyVetoException;
-import java.io.File;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.security.KeyStore;
 import java.security.KeyStoreException;
 import java.security.NoSuchAlgorithmException;
 import java.security.cert.Certificate;
 import java.security.cert.CertificateEncodingException;
 import java.security.cert.CertificateException;
-import java.security.cert.X509Certificate;
-import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
 
+import com.github.ibmioss.dcmtools.utils.DcmStoreReader.ReadPath;
 import com.github.theprez.jcmdutils.AppLogger;
-import com.github.theprez.jcmdutils.StringUtils;
 import com.ibm.as400.access.AS400SecurityException;
 import com.ibm.as400.access.ErrorCompletingRequestException;
 import com.ibm.as400.access.ObjectDoesNotExistException;
@@ -22,15 +25,48 @@ import com.ibm.as400.access.ObjectDoesNotExistException;
 public class KeyStoreInterrogator {
     public static KeyStoreInterrogator getFromDCM(final AppLogger _logger, final boolean _isYesMode, final String _dcmStore, final String _dcmStorePw)
             throws IOException, PropertyVetoException, AS400SecurityException, ErrorCompletingRequestException, InterruptedException, ObjectDoesNotExistException, KeyStoreException, NoSuchAlgorithmException, CertificateException {
-        final File tmpFile = CertUtils.exportDcmStore(_logger, _isYesMode, _dcmStore, _dcmStorePw, null, null);
-        final KeyStoreLoader loader = new KeyStoreLoader(_logger, Arrays.asList(tmpFile.getAbsolutePath()), TempFileManager.TEMP_KEYSTORE_PWD, null, false);
-        return new KeyStoreInterrogator(loader.getKeyStore());
+        final DcmStoreReader reader = DcmStoreReader.read(_logger, _isYesMode, _dcmStore, _dcmStorePw);
+        return new KeyStoreInterrogator(reader.getKeyStore(), reader.getReadPath());
     }
 
+    private static void putIfAbsent(final Map<ByteBuffer, String> _index, final ByteBuffer _key, final String _alias) {
+        if (!_index.containsKey(_key)) {
+            _index.put(_key, _alias);
+        }
+    }
+
+    // SHA-256 of the DER encoding, the to-be-signed portion and the public key of each X.509 certificate, mapped to
+    // the first alias holding a matching certificate
+    private final Map<ByteBuffer, String> m_derIndex = new HashMap<ByteBuffer, String>();
+    private final Map<String, CertDigest> m_digests = new LinkedHashMap<String, CertDigest>();
     private final KeyStore m_keyStore;
+    private final List<String> m_nonX509Aliases = new LinkedList<String>();
+    private final ReadPath m_readPath;
+    private final Map<ByteBuffer, String> m_spkiIndex = new HashMap<ByteBuffer, String>();
+    private final Map<ByteBuffer, String> m_tbsIndex = new HashMap<ByteBuffer, String>();
+
+    public KeyStoreInterrogator(final KeyStore _ks) throws KeyStoreException, CertificateEncodingException {
+        this(_ks, null);
+    }
 
-    public KeyStoreInterrogator(final KeyStore _ks) {
+    private KeyStoreInterrogator(final KeyStore _ks, final ReadPath _readPath) throws KeyStoreException, CertificateEncodingException {
         m_keyStore = _ks;
+        m_readPath = _readPath;
+        for (final String alias : Collections.list(_ks.aliases())) {
+            final Certificate cert = _ks.getCertificate(alias);
+            if (null == cert) {
+                continue;
+            }
+            final CertDigest digest = CertDigest.of(cert);
+            m_digests.put(alias, digest);
+            if (digest.isX509()) {
+                putIfAbsent(m_derIndex, digest.getDerHash(), alias);
+                putIfAbsent(m_tbsIndex, digest.getTbsHash(), alias);
+                putIfAbsent(m_spkiIndex, digest.getSpkiHash(), alias);
+            } else {
+                m_nonX509Aliases.add(alias);
+            }
+        }
     }
 
     public boolean containsCert(final AppLogger _logger, final Certificate _cert) throws KeyStoreException, CertificateEncodingException {
@@ -38,21 +74,33 @@ public class KeyStoreInterrogator {
     }
 
     public String getAliasOfCertOrNull(final AppLogger _logger, final Certificate _cert) throws KeyStoreException, CertificateEncodingException {
-        final String apiAlias = m_keyStore.getCertificateAlias(_cert);
-        if (StringUtils.isNonEmpty(apiAlias)) {
-            return apiAlias;
-        }
-        for (final String alias : Collections.list(m_keyStore.aliases())) {
-            final Certificate certInKeyStore = m_keyStore.getCertificate(alias);
-            if (CertUtils.areCertsEqual(_logger, certInKeyStore, _cert)) {
-                if (certInKeyStore instanceof X509Certificate && _cert instanceof X509Certificate) {
-                    if (Arrays.equals(((X509Certificate) _cert).getSignature(), ((X509Certificate) _cert).getSignature())) {
-                        return alias;
-                    } else {
-                        _logger.println_warn("WARNING: found matching certificate with different signature");
-                        continue;
-                    }
-                } else {
+        return getAliasOfCertOrNull(_logger, CertDigest.of(_cert));
+    }
+
+    /**
+     * Looks the certificate up in the hash indexes only. {@link KeyStore#getCertificateAlias(Certificate)} is not used,
+     * since it compares against every entry in turn and finds nothing the DER index does not.
+     */
+    public String getAliasOfCertOrNull(final AppLogger _logger, final CertDigest _digest) throws KeyStoreException, CertificateEncodingException {
+        if (_digest.isX509()) {
+            String alias = m_derIndex.get(_digest.getDerHash());
+            if (null != alias) {
+                _logger.println_verbose("DER-encoded information matches");
+                return alias;
+            }
+            alias = m_tbsIndex.get(_digest.getTbsHash());
+            if (null != alias) {
+                _logger.println_verbose("TBC cert match");
+                return alias;
+            }
+            alias = m_spkiIndex.get(_digest.getSpkiHash());
+            if (null != alias) {
+                _logger.println_verbose("public keys match");
+                return alias;
+            }
+        } else {
+            for (final String alias : m_nonX509Aliases) {
+                if (m_digests.get(alias).matches(_logger, _digest)) {
                     return alias;
                 }
             }
@@ -61,8 +109,29 @@ public class KeyStoreInterrogator {
         return null;
     }
 
+    /**
+     * Returns the digest of the certificate with the given alias, or <tt>null</tt> if there is no such certificate.
+     */
+    public CertDigest getDigest(final String _alias) {
+        return m_digests.get(_alias);
+    }
+
+    /**
+     * Returns the digest of every certificate in the store, keyed by alias, in the order of the store's aliases.
+     */
+    public Map<String, CertDigest> getDigests() {
+        return Collections.unmodifiableMap(m_digests);
+    }
+
     public KeyStore getKeyStore() {
         return m_keyStore;
     }
 
+    /**
+     * How the contents were read from DCM, or <tt>null</tt> if this was not read from DCM.
+     */
+    public ReadPath getReadPath() {
+        return m_readPath;
+    }
+
 }
@@ -1,27 +1,178 @@
 package com.github.ibmioss.dcmtools.utils;
 
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
 import java.security.KeyStore;
 import java.security.KeyStoreException;
 import java.security.NoSuchAlgorithmException;
 import java.security.cert.Certificate;
 import java.security.cert.CertificateException;
-import java.security.cert.CertificateFactory;
-import java.security.cert.X509Certificate;
-import java.util.Collection;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
 
+import com.github.ibmioss.dcmtools.utils.DirectoryWalker.Walk;
 import com.github.theprez.jcmdutils.AppLogger;
 import com.github.theprez.jcmdutils.ProcessLauncher;
 import com.github.theprez.jcmdutils.ProcessLauncher.ProcessResult;
 import com.github.theprez.jcmdutils.StringUtils;
 
 public class KeyStoreLoader {
+
+    /**
+     * One input to load: a file, or an entry of a .zip file that has been read into memory.
+     */
+    private static class Input {
+        private final byte[] m_data;
+        private final File m_file;
+        private boolean m_isFromDirectory = false;
+        private final String m_labelPath;
+        private final String m_name;
+
+        private Input(final File _file, final String _labelPath) {
+            m_file = _file;
+            m_data = null;
+            m_name = _file.getName();
+            m_labelPath = _labelPath;
+        }
+
+        private Input(final String _name, final String _labelPath, final byte[] _data) {
+            m_file = null;
+            m_data = _data;
+            m_name = _name;
+            m_labelPath = _labelPath;
+        }
+
+        /**
+         * The label for the certificates in this input: its path relative to the directory being walked (or within its
+         * .zip file), without the extension and with each separator replaced by <tt>-</tt>. For instance, the
+         * <tt>live/example.com/cert.pem</tt> found when walking <tt>live</tt> is labeled <tt>example.com-cert</tt>.
+         */
+        private String getLabel() {
+            return m_labelPath.replaceFirst("[.][^./\\\\]+$", "").replaceAll("[/\\\\]+", "-");
+        }
+
+        private InputStream open() throws IOException {
+            return null == m_file ? new ByteArrayInputStream(m_data) : new FileInputStream(m_file);
+        }
+
+        private byte[] readAll() throws IOException {
+            return null == m_file ? m_data : Files.readAllBytes(m_file.toPath());
+        }
+    }
+
+    /**
+     * The result of reading and parsing one input file: a key store, or certificates, or neither.
+     */
+    private static class LoadedFile {
+        private static LoadedFile load(final Input _input, final String _pw, final boolean _caOnly) {
+            try (BufferedInputStream in = new BufferedInputStream(_input.open(), InputFormat.SNIFF_LENGTH)) {
+                in.mark(InputFormat.SNIFF_LENGTH);
+                final byte[] head = new byte[InputFormat.SNIFF_LENGTH];
+                int headLen = 0;
+                int bytesRead;
+                while (headLen < head.length && -1 != (bytesRead = in.read(head, headLen, head.length - headLen))) {
+                    headLen += bytesRead;
+                }
+                in.reset();
+                // Go straight to the parser for the format the file looks like, and only try everything else if that fails
+                final InputFormat format = InputFormat.sniff(Arrays.copyOf(head, headLen));
+                if (InputFormat.DER_CERTIFICATES == format || InputFormat.PEM_CERTIFICATES == format) {
+                    final LoadedFile ret = readCertificates(in, _caOnly);
+                    if (null != ret) {
+                        return ret;
+                    }
+                    // no key store type reads PEM text, so only DER that did not start with a certificate is tried whole
+                    if (InputFormat.PEM_CERTIFICATES == format) {
+                        return new LoadedFile(null, null, 0, null);
+                    }
+                    return loadWhole(_input.readAll(), InputFormat.UNKNOWN, _pw, _caOnly);
+                }
+                return loadWhole(_input.readAll(), format, _pw, _caOnly);
+            } catch (final IOException e) {
+                return new LoadedFile(null, null, 0, e);
+            }
+        }
+
+        private static LoadedFile loadWhole(final byte[] _data, final InputFormat _format, final String _pw, final boolean _caOnly) {
+            KeyStore fileKs = loadKeyStore(_data, _format.getKeyStoreTypes(), _pw);
+            if (null == fileKs) {
+                fileKs = loadKeyStore(_data, _format.getFallbackKeyStoreTypes(), _pw);
+            }
+            if (null != fileKs) {
+                return new LoadedFile(fileKs, null, 0, null);
+            }
+            final LoadedFile ret = readCertificates(new ByteArrayInputStream(_data), _caOnly);
+            return null == ret ? new LoadedFile(null, null, 0, null) : ret;
+        }
+
+        /**
+         * Streams the certificates in, returning <tt>null</tt> if there are none or the input is not certificates. If
+         * reading fails after some certificates were read, the file is reported as unreadable rather than read again
+         * in another way.
+         */
+        private static LoadedFile readCertificates(final InputStream _in, final boolean _caOnly) {
+            final List<Certificate> certs = new LinkedList<Certificate>();
+            CertificateStreamReader reader = null;
+            try {
+                reader = new CertificateStreamReader(_in);
+                reader.setCaOnly(_caOnly);
+                Certificate cert;
+                while (null != (cert = reader.next())) {
+                    certs.add(cert);
+                }
+                return 0 == reader.getNumRead() ? null : new LoadedFile(null, certs, reader.getNumDuplicates(), null);
+            } catch (final Throwable e) {
+                if (null == reader || 0 == reader.getNumRead()) {
+                    return null;
+                }
+                return new LoadedFile(null, null, 0, new IOException("Error after certificate " + reader.getNumRead() + ": " + e.getLocalizedMessage(), e));
+            } finally {
+                if (null != reader) {
+                    try {
+                        reader.close();
+                    } catch (final IOException e) {
+                        // nothing more to read
+                    }
+                }
+            }
+        }
+
+        private final List<Certificate> m_certs;
+        private final KeyStore m_keyStore;
+        private final int m_numDuplicates;
+        private final IOException m_readError;
+
+        private LoadedFile(final KeyStore _keyStore, final List<Certificate> _certs, final int _numDuplicates, final IOException _readError) {
+            m_keyStore = _keyStore;
+            m_certs = _certs;
+            m_numDuplicates = _numDuplicates;
+            m_readError = _readError;
+        }
+    }
+
+    private static final long DEFAULT_MAX_ZIP_SIZE = 64L * 1024 * 1024;
+    private static final int MAX_ZIP_DEPTH = 8;
     private static final String PKCS_12 = "PKCS12";
 
     public static String extractTrustFromInstalledCerts(final AppLogger _logger) throws IOException {
@@ -38,6 +189,61 @@ public class KeyStoreLoader {
         return destFile.getAbsolutePath(); // TODO: delete this file!
     }
 
+    /**
+     * Starts reading and parsing the files concurrently, on a pool of at most <tt>dcmtools.load.threads</tt> threads
+     * (by default, one per processor). Returns <tt>null</tt> when there is nothing to gain, in which case the files are
+     * loaded one at a time as they are merged.
+     */
+    private static List<ForkJoinTask<LoadedFile>> startLoading(final ForkJoinPool _pool, final List<Input> _files, final String _pw, final boolean _caOnly) {
+        if (null == _pool) {
+            return null;
+        }
+        final List<ForkJoinTask<LoadedFile>> ret = new ArrayList<ForkJoinTask<LoadedFile>>(_files.size());
+        for (final Input file : _files) {
+            ret.add(_pool.submit(new Callable<LoadedFile>() {
+                @Override
+                public LoadedFile call() {
+                    return LoadedFile.load(file, _pw, _caOnly);
+                }
+            }));
+        }
+        return ret;
+    }
+
+    /**
+     * Reads the entries of a .zip file into memory, descending into any .zip files inside it. <tt>_budget</tt> holds
+     * the number of bytes that may still be read, shared by all the nested .zip files, so that a small archive cannot
+     * expand into more than <tt>dcmtools.zip.maxSize</tt> bytes (64 MB by default).
+     */
+    private static void readZip(final String _name, final String _labelPrefix, final InputStream _in, final List<Input> _inputs, final long[] _budget, final int _depth) throws IOException {
+        if (MAX_ZIP_DEPTH < _depth) {
+            throw new IOException("Too many levels of nested .zip files in " + _name);
+        }
+        final ZipInputStream zip = new ZipInputStream(_in);
+        ZipEntry entry;
+        final byte[] buf = new byte[16 * 1024];
+        while (null != (entry = zip.getNextEntry())) {
+            if (entry.isDirectory() || 0 == entry.getName().length()) {
+                continue;
+            }
+            final String entryName = _name + "!" + entry.getName();
+            final ByteArrayOutputStream data = new ByteArrayOutputStream();
+            int bytesRead;
+            while (-1 != (bytesRead = zip.read(buf))) {
+                _budget[0] -= bytesRead;
+                if (0 > _budget[0]) {
+                    throw new IOException("Contents of " + _name + " exceed the limit of " + Long.getLong("dcmtools.zip.maxSize", DEFAULT_MAX_ZIP_SIZE) + " bytes");
+                }
+                data.write(buf, 0, bytesRead);
+            }
+            if (entry.getName().toLowerCase().endsWith(".zip")) {
+                readZip(entryName, _labelPrefix, new ByteArrayInputStream(data.toByteArray()), _inputs, _budget, _depth + 1);
+            } else {
+                _inputs.add(new Input(entryName, _labelPrefix + entry.getName(), data.toByteArray()));
+            }
+        }
+    }
+
     private final KeyStore m_keyStore;
 
     public KeyStoreLoader(final KeyStore _ks) {
@@ -45,94 +251,160 @@ public class KeyStoreLoader {
     }
 
     public KeyStoreLoader(final AppLogger _logger, final List<String> _files, final String _pw, final String _label, final boolean _caOnly) throws IOException, KeyStoreException, NoSuchAlgorithmException, CertificateException {
+        this(_logger, _files, _pw, _label, _caOnly, new DirectoryWalker());
+    }
 
-        final List<String> filesToLoad = new LinkedList<String>();
-        filesToLoad.addAll(_files);
+    /**
+     * Loads the given files, finding the files in any directories among them with <tt>_walker</tt>.
+     */
+    public KeyStoreLoader(final AppLogger _logger, final List<String> _files, final String _pw, final String _label, final boolean _caOnly, final DirectoryWalker _walker) throws IOException, KeyStoreException, NoSuchAlgorithmException, CertificateException {
 
-        // TODO: if .zip file, unzip and process files individually
+        // .zip files, including those in directories, are read straight into memory rather than extracted
+        final List<File> filesToLoad = new LinkedList<File>();
+        final Map<File, String> filesInDirectories = new HashMap<File, String>();
+        int numSkipped = 0;
         for (final String file : _files) {
             final File f = new File(file);
             if (f.isDirectory()) {
-                for (final File innerFile : f.listFiles()) {
-                    filesToLoad.add(innerFile.getAbsolutePath());
+                final Walk walk = _walker.walk(_logger, f);
+                filesToLoad.addAll(walk.getFiles());
+                for (final File found : walk.getFiles()) {
+                    // labeled by the path below the walked directory, as a tree like CertBot's has many a cert.pem
+                    filesInDirectories.put(found, f.toPath().relativize(found.toPath()).toString());
                 }
-            } else if (file.toLowerCase().endsWith(".zip")) {
-                for (final File innerFile : TempFileManager.unzip(file)) {
-                    filesToLoad.add(innerFile.getAbsolutePath());
+                numSkipped += walk.getNumSkipped();
+            } else {
+                filesToLoad.add(f);
+            }
+        }
+        final List<Input> files = new ArrayList<Input>(filesToLoad.size());
+        for (final File file : filesToLoad) {
+            final int numBefore = files.size();
+            final String relativePath = filesInDirectories.get(file);
+            if (file.getName().toLowerCase().endsWith(".zip")) {
+                // entries of a .zip file in a subdirectory are labeled with that subdirectory too
+                final String labelPrefix = null == relativePath || null == new File(relativePath).getParent() ? "" : new File(relativePath).getParent() + "/";
+                try (InputStream in = new FileInputStream(file)) {
+                    readZip(file.getName(), labelPrefix, in, files, new long[] { Long.getLong("dcmtools.zip.maxSize", DEFAULT_MAX_ZIP_SIZE) }, 0);
+                }
+            } else {
+                files.add(new Input(file, null == relativePath ? file.getName() : relativePath));
+            }
+            if (null != relativePath) {
+                for (final Input input : files.subList(numBefore, files.size())) {
+                    input.m_isFromDirectory = true;
                 }
             }
         }
 
-        final String[] keystoreTypes = new String[] { KeyStore.getDefaultType(), "JKS", "PKCS12", "JCEKS", "PKCS12V3" };
         KeyStore keyStore = KeyStore.getInstance("PKCS12");
         keyStore.load(null, null);
-        boolean isKeyStoreLoaded = false;
 
-        for (final String file : filesToLoad) {
-            boolean isFileLoaded = false;
+        final int numThreads = Math.max(1, Math.min(files.size(), Integer.getInteger("dcmtools.load.threads", Runtime.getRuntime().availableProcessors())));
+        final ForkJoinPool pool = 1 < numThreads ? new ForkJoinPool(numThreads) : null;
+        try {
+            keyStore = merge(_logger, files, startLoading(pool, files, _pw, _caOnly), _pw, _label, _caOnly, keyStore, numSkipped);
+        } finally {
+            if (null != pool) {
+                pool.shutdownNow();
+            }
+        }
+        _logger.println_verbose("Successfully loaded certificates");
+        m_keyStore = keyStore;
+    }
 
-            // skip directories and .zip files (we already added their contents to the main list)
-            if (new File(file).isDirectory() || file.toLowerCase().endsWith(".zip")) {
+    /**
+     * Merges the loaded files into the key store one at a time, in input order, so that labels come out the same
+     * however the loading was scheduled. A label already taken by an earlier file gets a suffix (<tt>.2</tt>,
+     * <tt>.3</tt>, ...) rather than replacing that file's certificate. Each file is merged as soon as it and the files
+     * before it are loaded, and only the key store keeps its certificates after that.
+     */
+    private static KeyStore merge(final AppLogger _logger, final List<Input> _files, final List<ForkJoinTask<LoadedFile>> _loading, final String _pw, final String _label, final boolean _caOnly, final KeyStore _keyStore, final int _numSkipped) throws IOException, KeyStoreException, NoSuchAlgorithmException, CertificateException {
+        KeyStore keyStore = _keyStore;
+        boolean isKeyStoreLoaded = false;
+        int numSkipped = _numSkipped;
+        final Set<ByteBuffer> seen = new HashSet<ByteBuffer>();
+        int numDuplicates = 0;
+        for (int i = 0; i < _files.size(); ++i) {
+            final Input file = _files.get(i);
+            final LoadedFile loaded = null == _loading ? LoadedFile.load(file, _pw, _caOnly) : _loading.get(i).join();
+            if (null != _loading) {
+                _loading.set(i, null);
+            }
+            if (null != loaded.m_readError) {
+                _logger.println_warn("WARNING: File " + file.m_name + " will not be processed. It could not be read: " + loaded.m_readError.getLocalizedMessage());
                 continue;
             }
-            // Try to load as keystore file
-            for (final String keystoreType : keystoreTypes) {
-                KeyStore fileKs = null;
-                try (FileInputStream fis = new FileInputStream(file)) {
-                    fileKs = KeyStore.getInstance(keystoreType);
-                    fileKs.load(fis, null == _pw ? null : _pw.toCharArray());
-                } catch (final Throwable e) {
-                    continue;
-                }
-                if (null != fileKs) {
-                    keyStore = CertUtils.mergeKeyStore(keyStore, fileKs);
+            boolean isFileLoaded = false;
+            if (null != loaded.m_keyStore) {
+                keyStore = CertUtils.mergeKeyStore(_logger, keyStore, loaded.m_keyStore);
+                isFileLoaded = true;
+                isKeyStoreLoaded = true;
+            } else if (null != loaded.m_certs) {
+                numDuplicates += loaded.m_numDuplicates;
+                int counter = 1;
+                for (final Certificate cert : loaded.m_certs) {
+                    // already deduplicated within the file, but the same certificate may be in several files
+                    if (!seen.add(CertDigest.of(cert).getDerHash())) {
+                        numDuplicates++;
+                        isFileLoaded = true;
+                        continue;
+                    }
+                    final String aliasBase = StringUtils.isEmpty(_label) ? file.getLabel() : _label.trim();
+                    final String aliasSuffix = (1 == counter) ? "" : "." + counter;
+                    counter++;
+                    // a label taken by an earlier file (or key store) is not replaced, but given a further suffix
+                    final String alias = CertUtils.getUnusedAlias(_logger, keyStore, aliasBase + aliasSuffix);
+                    keyStore.setCertificateEntry(alias, cert);
                     isFileLoaded = true;
-                    isKeyStoreLoaded = true;
-                    break;
                 }
             }
-            // That didn't work! Try to load as a certificate file
             if (!isFileLoaded) {
-                try (FileInputStream fis = new FileInputStream(file)) {
-                    final Collection<? extends Certificate> certs = CertificateFactory.getInstance("X.509").generateCertificates(fis);
-                    if (!certs.isEmpty()) {
-                        int counter = 1;
-                        for (final Certificate cert : certs) {
-                            if (_caOnly && !isCertCa(cert)) {
-                                continue;
-                            }
-                            final String aliasBase = StringUtils.isEmpty(_label) ? new File(file).getName().replaceFirst("[.][^.]+$", "") : _label.trim();
-                            final String aliasSuffix = (1 == counter) ? "" : "." + counter;
-                            counter++;
-                            final String alias = aliasBase + aliasSuffix;
-                            keyStore.setCertificateEntry(alias, cert);
-                            isFileLoaded = true;
-                        }
-                    }
-                } catch (final Throwable e) {
+                if (file.m_isFromDirectory) {
+                    // a directory may hold many other files, so these are only counted
+                    _logger.println_verbose("File " + file.m_name + " will not be processed. It is in an unsupported format");
+                    numSkipped++;
+                } else {
+                    _logger.println_warn("WARNING: File " + file.m_name + " will not be processed. It is in an unsupported format");
                 }
             }
-            if (!isFileLoaded) {
-                _logger.println_warn("WARNING: File " + new File(file).getName() + " will not be processed. It is in an unsupported format");
-            }
+        }
+        if (0 < numSkipped) {
+            _logger.println_warn("WARNING: Skipped " + numSkipped + " file(s) in directories that were filtered out, unreadable, or in an unsupported format");
+        }
+        if (0 < numDuplicates) {
+            _logger.println_verbose("Skipped " + numDuplicates + " duplicate certificate(s)");
         }
         // Out of ideas
         if (!keyStore.aliases().hasMoreElements() && !isKeyStoreLoaded) {
             throw new IOException("Failure loading certificates");
         }
-        _logger.println_verbose("Successfully loaded certificates");
-        m_keyStore = keyStore;
+        return keyStore;
     }
 
-    public KeyStore getKeyStore() {
-        return m_keyStore;
+    /**
+     * Loads the data as a key store of each of the given types in turn, returning the first that loads, or
+     * <tt>null</tt>. A type given twice (such as the default type) is only tried once.
+     */
+    private static KeyStore loadKeyStore(final byte[] _data, final String[] _keyStoreTypes, final String _pw) {
+        final Set<String> tried = new HashSet<String>();
+        for (final String keystoreType : _keyStoreTypes) {
+            if (!tried.add(keystoreType.toUpperCase(Locale.ROOT))) {
+                continue;
+            }
+            try {
+                final KeyStore fileKs = KeyStore.getInstance(keystoreType);
+                fileKs.load(new ByteArrayInputStream(_data), null == _pw ? null : _pw.toCharArray());
+                return fileKs;
+            } catch (final Throwable e) {
+                continue;
+            }
+        }
+        return null;
     }
 
-    private boolean isCertCa(final Certificate cert) {
-        if (cert instanceof X509Certificate) {
-            return ((X509Certificate) cert).getBasicConstraints() != -1;
-        }
-        return false;
+    public KeyStore getKeyStore() {
+        return m_keyStore;
     }
 
     public String saveToDcmApiFormatFile(final String _pw) throws IOException, KeyStoreException, NoSuchAlgorithmException, CertificateException {
@@ -0,0 +1,132 @@
+package com.github.ibmioss.dcmtools.utils;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.cert.CertificateEncodingException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.TreeMap;
+
+/**
+ * A content digest of a certificate store, built as a Merkle tree over its (alias, certificate fingerprint) entries.
+ * Every alias falls into one of {@link #NUM_BUCKETS} fixed buckets by the hash of its name; each leaf of the tree is
+ * the SHA-256 of the sorted entries in its bucket, and each node above is the SHA-256 of its two children. Two stores
+ * hold the same entries exactly when their {@link #getRootHash() root hashes} match, and when they do not,
+ * {@link #getDifferingBuckets(StoreDigest)} walks down only the subtrees that differ to find the buckets to compare.
+ */
+public final class StoreDigest {
+
+    public static final int NUM_BUCKETS = 256;
+
+    /**
+     * The bucket that entries with the given alias belong to.
+     */
+    public static int bucketOf(final String _alias) {
+        return CertDigest.sha256(_alias.getBytes(StandardCharsets.UTF_8))[0] & 0xff;
+    }
+
+    static StoreDigest fromLeaves(final byte[][] _leaves) {
+        if (NUM_BUCKETS != _leaves.length) {
+            throw new IllegalArgumentException("Expected " + NUM_BUCKETS + " leaves, got " + _leaves.length);
+        }
+        return new StoreDigest(_leaves);
+    }
+
+    /**
+     * Builds the digest of a store from its aliases and the SHA-256 fingerprints of their certificates.
+     */
+    public static StoreDigest of(final Map<String, String> _fingerprintsByAlias) {
+        final List<TreeMap<String, String>> buckets = new ArrayList<TreeMap<String, String>>(NUM_BUCKETS);
+        for (int i = 0; i < NUM_BUCKETS; ++i) {
+            buckets.add(new TreeMap<String, String>());
+        }
+        for (final Entry<String, String> entry : _fingerprintsByAlias.entrySet()) {
+            buckets.get(bucketOf(entry.getKey())).put(entry.getKey(), entry.getValue());
+        }
+        final byte[][] leaves = new byte[NUM_BUCKETS][];
+        int i = 0;
+        for (final TreeMap<String, String> bucket : buckets) {
+            final MessageDigest md = CertDigest.newSha256();
+            for (final Entry<String, String> entry : bucket.entrySet()) {
+                md.update(entry.getKey().getBytes(StandardCharsets.UTF_8));
+                md.update((byte) 0);
+                md.update(entry.getValue().getBytes(StandardCharsets.UTF_8));
+                md.update((byte) '\n');
+            }
+            leaves[i++] = md.digest();
+        }
+        return new StoreDigest(leaves);
+    }
+
+    /**
+     * Builds the digest of a store from its certificates, as returned by {@link KeyStoreInterrogator#getDigests()}.
+     */
+    public static StoreDigest ofCerts(final Map<String, CertDigest> _certs) throws CertificateEncodingException {
+        final Map<String, String> fingerprints = new TreeMap<String, String>();
+        for (final Entry<String, CertDigest> entry : _certs.entrySet()) {
+            fingerprints.put(entry.getKey(), entry.getValue().getFingerprint());
+        }
+        return of(fingerprints);
+    }
+
+    /** Heap-ordered: the root is at index 1, the children of node <tt>n</tt> at <tt>2n</tt> and <tt>2n+1</tt> */
+    private final byte[][] m_nodes;
+
+    private StoreDigest(final byte[][] _leaves) {
+        m_nodes = new byte[2 * NUM_BUCKETS][];
+        System.arraycopy(_leaves, 0, m_nodes, NUM_BUCKETS, NUM_BUCKETS);
+        for (int i = NUM_BUCKETS - 1; i > 0; --i) {
+            final MessageDigest md = CertDigest.newSha256();
+            md.update(m_nodes[2 * i]);
+            md.update(m_nodes[2 * i + 1]);
+            m_nodes[i] = md.digest();
+        }
+    }
+
+    @Override
+    public boolean equals(final Object _obj) {
+        return _obj instanceof StoreDigest && Arrays.equals(m_nodes[1], ((StoreDigest) _obj).m_nodes[1]);
+    }
+
+    /**
+     * The buckets whose entries differ between the two stores, in ascending order. Only the subtrees whose hashes
+     * differ are visited.
+     */
+    public List<Integer> getDifferingBuckets(final StoreDigest _other) {
+        final List<Integer> ret = new LinkedList<Integer>();
+        collectDifferingBuckets(_other, 1, ret);
+        return ret;
+    }
+
+    private void collectDifferingBuckets(final StoreDigest _other, final int _node, final List<Integer> _ret) {
+        if (Arrays.equals(m_nodes[_node], _other.m_nodes[_node])) {
+            return;
+        }
+        if (_node >= NUM_BUCKETS) {
+            _ret.add(_node - NUM_BUCKETS);
+            return;
+        }
+        collectDifferingBuckets(_other, 2 * _node, _ret);
+        collectDifferingBuckets(_other, 2 * _node + 1, _ret);
+    }
+
+    byte[] getLeaf(final int _bucket) {
+        return m_nodes[NUM_BUCKETS + _bucket];
+    }
+
+    /**
+     * Hex SHA-256 at the root of the tree.
+     */
+    public String getRootHash() {
+        return CertDigest.toHex(m_nodes[1]);
+    }
+
+    @Override
+    public int hashCode() {
+        return Arrays.hashCode(m_nodes[1]);
+    }
+}